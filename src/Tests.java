@@ -1,12 +1,62 @@
+import data.AmongiPositions;
+import data.Amongus;
+import data.ColourHistogram;
 import data.Image;
+import data.PalettedImage;
+import data.ParallelPngDecoder;
+import data.PatternSet;
+import data.PixelEventLog;
+import data.RawImageCache;
 import org.junit.Test;
 import static junit.framework.TestCase.*;
 
+import solutions.AffinityFinder;
+import solutions.AmongiLocator;
+import solutions.BitplaneFinder;
+import solutions.CachingFinder;
+import solutions.CancellationToken;
+import solutions.FinderService;
+import solutions.IncrementalFinder;
+import solutions.PaletteFinder;
+import solutions.PatternFinder;
 import solutions.ParallelFinderGlobalHashMap;
+import solutions.ParallelFinderPooled;
 import solutions.ParallelFinderSubtotals;
+import solutions.PartialCounts;
 import solutions.SequentialFinder;
+import solutions.ShardCoordinator;
+import solutions.ShardWorker;
+import solutions.StreamingFinder;
+import solutions.TileScanner;
+import solutions.TileTaskFinder;
+import solutions.Timelapse;
 
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.PrintWriter;
+import java.io.UncheckedIOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
 import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
 
 /** These tests can be used to test your parallel implementation. Feel free to add more tests. */
 public class Tests {
@@ -22,39 +72,735 @@ public class Tests {
     @Test
     public void testSubtotals() {
         SequentialFinder seq = new SequentialFinder();
-        ParallelFinderSubtotals p1 = new ParallelFinderSubtotals(1, Integer.MAX_VALUE, Integer.MAX_VALUE); // same as sequential
-        ParallelFinderSubtotals p4 = new ParallelFinderSubtotals(4, 1, 1);
-        ParallelFinderSubtotals pT = new ParallelFinderSubtotals(4, 43, 43);
+        try (ParallelFinderSubtotals p1 = new ParallelFinderSubtotals(1, Integer.MAX_VALUE, Integer.MAX_VALUE); // same as sequential
+             ParallelFinderSubtotals p4 = new ParallelFinderSubtotals(4, 1, 1);
+             ParallelFinderSubtotals pT = new ParallelFinderSubtotals(4, 43, 43);
+             ParallelFinderSubtotals pA = new ParallelFinderSubtotals(4)) { // adaptive
+            for (String file : files) {
+                Image img = new Image(file);
+
+                AbstractMap<Integer, Integer> c_seq = seq.countAmongiByColour(img);
+                AbstractMap<Integer, Integer> c_p1 = p1.countAmongiByColour(img);
+                AbstractMap<Integer, Integer> c_p4 = p4.countAmongiByColour(img);
+                AbstractMap<Integer, Integer> c_pT = pT.countAmongiByColour(img);
+                AbstractMap<Integer, Integer> c_pA = pA.countAmongiByColour(img);
+
+                assertEquals(c_seq, c_p1);
+                assertEquals(c_seq, c_p4);
+                assertEquals(c_seq, c_pT);
+                assertEquals(c_seq, c_pA);
+            }
+        }
+    }
+
+    @Test
+    public void testGlobalHashMap() {
+        SequentialFinder seq = new SequentialFinder();
+        try (ParallelFinderGlobalHashMap p1 = new ParallelFinderGlobalHashMap(1, Integer.MAX_VALUE); // same as sequential
+             ParallelFinderGlobalHashMap p4 = new ParallelFinderGlobalHashMap(4, 43)) { // same as sequential
+            for (String file : files) {
+                Image img = new Image(file);
+
+                AbstractMap<Integer, Integer> c_seq = seq.countAmongiByColour(img);
+                AbstractMap<Integer, Integer> c_p1 = p1.countAmongiByColour(img);
+                AbstractMap<Integer, Integer> c_p4 = p4.countAmongiByColour(img);
+
+                assertEquals(c_seq, c_p1);
+                assertEquals(c_seq, c_p4);
+            }
+        }
+    }
+
+    @Test
+    public void testTiledLayout() {
+        SequentialFinder seq = new SequentialFinder();
+        try (ParallelFinderSubtotals pT = new ParallelFinderSubtotals(4, 43, 43)) {
+            for (String file : files) {
+                Image rowMajor = new Image(file);
+                Image tiled = new Image(file, Image.Layout.TILED);
+
+                AbstractMap<Integer, Integer> c_seq = seq.countAmongiByColour(rowMajor);
+                AbstractMap<Integer, Integer> c_tiled = seq.countAmongiByColour(tiled);
+                AbstractMap<Integer, Integer> c_pT = pT.countAmongiByColour(tiled);
+
+                assertEquals(c_seq, c_tiled);
+                assertEquals(c_seq, c_pT);
+            }
+        }
+    }
+
+    @Test
+    public void testRawCache() throws Exception {
+        SequentialFinder seq = new SequentialFinder();
+
+        for (String file : files) {
+            Image first = new Image(file); // writes the sidecar if it is missing
+            Image second = new Image(file);
+
+            assertEquals(RawImageCache.ENABLED, second.isMapped());
+            assertEquals(seq.countAmongiByColour(first), seq.countAmongiByColour(second));
+        }
+
+        // Loaders that write the same sidecar at once do not mix their bytes, and leave no temporary files.
+        Path directory = Files.createTempDirectory("amongus-raw");
+        String copy = directory.resolve("copy.png").toString();
+        Files.copy(Path.of(files[0]), Path.of(copy));
+        AbstractMap<Integer, Integer> expected = seq.countAmongiByColour(new Image(files[0]));
+        List<CompletableFuture<Image>> loads = new ArrayList<>();
+        for (int i = 0; i < 4; i++) loads.add(CompletableFuture.supplyAsync(() -> new Image(copy)));
+        for (CompletableFuture<Image> load : loads) assertEquals(expected, seq.countAmongiByColour(load.get()));
+        assertEquals(expected, seq.countAmongiByColour(new Image(copy)));
+        for (String name : directory.toFile().list()) assertFalse(name, name.endsWith(".tmp"));
+    }
+
+    @Test
+    public void testStreaming() {
+        SequentialFinder seq = new SequentialFinder();
+        StreamingFinder s1 = new StreamingFinder(1);
+        StreamingFinder s7 = new StreamingFinder(7);
+        StreamingFinder s500 = new StreamingFinder(500);
 
         for (String file : files) {
             Image img = new Image(file);
 
             AbstractMap<Integer, Integer> c_seq = seq.countAmongiByColour(img);
-            AbstractMap<Integer, Integer> c_p1 = p1.countAmongiByColour(img);
-            AbstractMap<Integer, Integer> c_p4 = p4.countAmongiByColour(img);
-            AbstractMap<Integer, Integer> c_pT = pT.countAmongiByColour(img);
 
-            assertEquals(c_seq, c_p1);
-            assertEquals(c_seq, c_p4);
-            assertEquals(c_seq, c_pT);
+            assertEquals(c_seq, s1.countAmongiByColour(file));
+            assertEquals(c_seq, s7.countAmongiByColour(file));
+            assertEquals(c_seq, s500.countAmongiByColour(file));
+            assertEquals(c_seq, s7.countAmongiByColour(img));
         }
     }
 
     @Test
-    public void testGlobalHashMap() {
+    public void testFinderService() throws Exception {
         SequentialFinder seq = new SequentialFinder();
-        ParallelFinderGlobalHashMap p1 = new ParallelFinderGlobalHashMap(1, Integer.MAX_VALUE); // same as sequential
-        ParallelFinderGlobalHashMap p4 = new ParallelFinderGlobalHashMap(4, 43); // same as sequential
+
+        try (FinderService service = new FinderService(4, 2)) {
+            List<CompletableFuture<AbstractMap<Integer, Integer>>> fromPaths = service.countAllPaths(Arrays.stream(files));
+            for (int i = 0; i < files.length; i++) {
+                assertEquals(seq.countAmongiByColour(new Image(files[i])), fromPaths.get(i).get());
+            }
+
+            List<Image> images = new ArrayList<>();
+            for (int seed = 0; seed < 8; seed++) images.add(randomImage(seed, 97, 61, 3 + seed));
+            List<CompletableFuture<AbstractMap<Integer, Integer>>> fromImages = service.countAll(images);
+            for (int i = 0; i < images.size(); i++) {
+                assertEquals(bruteForce(images.get(i)), fromImages.get(i).get());
+            }
+
+            // A path that cannot be decoded fails its own future only.
+            File text = File.createTempFile("text", ".txt");
+            text.deleteOnExit();
+            Files.writeString(text.toPath(), "Not an image");
+            List<CompletableFuture<AbstractMap<Integer, Integer>>> mixed = service.countAllPaths(
+                    Stream.of("images/does_not_exist.png", text.getPath(), files[0]));
+            for (int i = 0; i < 2; i++) {
+                try {
+                    mixed.get(i).get();
+                    fail("Expected the decode to fail");
+                } catch (ExecutionException e) {
+                    assertTrue(e.getCause() instanceof UncheckedIOException);
+                }
+            }
+            assertEquals(seq.countAmongiByColour(new Image(files[0])), mixed.get(2).get());
+        }
+
+        // Closing while images are being decoded or counted completes every future, one way or the other.
+        List<CompletableFuture<AbstractMap<Integer, Integer>>> pending;
+        try (FinderService service = new FinderService(2, 1)) {
+            pending = service.countAllPaths(Stream.of(files[0], files[1], files[0], files[1]));
+        }
+        for (CompletableFuture<AbstractMap<Integer, Integer>> future : pending) {
+            try {
+                future.get(60, TimeUnit.SECONDS);
+            } catch (CancellationException | ExecutionException e) {
+                // Cancelled by close(), or failed because its decode was interrupted
+            }
+        }
+    }
+
+    @Test
+    public void testColourHistogram() {
+        ColourHistogram h1 = new ColourHistogram(4);
+        ColourHistogram h2 = new ColourHistogram();
+        HashMap<Integer, Integer> expected = new HashMap<>();
+        Random random = new Random(42);
+        for (int i = 0; i < 10000; i++) {
+            int colour = random.nextInt(300) - 150; // includes 0 and negative (opaque ARGB) colours
+            (i % 2 == 0 ? h1 : h2).increment(colour);
+            expected.merge(colour, 1, Integer::sum);
+        }
+
+        ColourHistogram merged = ColourHistogram.merge(h1, h2);
+        assertEquals(expected, merged.asMap());
+        assertEquals(expected.size(), merged.size());
+        assertEquals(0, merged.get(1000));
+
+        for (int colour = -150; colour < 150; colour += 2) {
+            int count = expected.getOrDefault(colour, 0);
+            if (count > 0) merged.subtract(colour, count);
+            expected.remove(colour);
+        }
+        assertEquals(expected, merged.asMap());
+        assertEquals(expected.size(), merged.size());
+    }
+
+    @Test
+    public void testPalette() {
+        SequentialFinder seq = new SequentialFinder();
+        try (PaletteFinder p1 = new PaletteFinder(1, Integer.MAX_VALUE);
+             PaletteFinder p4 = new PaletteFinder(4, 43)) {
+            for (String file : files) {
+                Image img = new Image(file);
+                PalettedImage paletted = PalettedImage.quantize(img);
+
+                AbstractMap<Integer, Integer> c_seq = seq.countAmongiByColour(img);
+
+                assertNotNull(paletted);
+                assertEquals(c_seq, p1.countAmongiByColour(img));
+                assertEquals(c_seq, p4.countAmongiByColour(paletted));
+            }
+
+            // More colours than fit in a palette: counted on ARGB values instead.
+            int[] pixels = new int[64 * 64];
+            for (int i = 0; i < pixels.length; i++) pixels[i] = i / 4;
+            Image many = new Image(64, 64, pixels);
+            assertNull(PalettedImage.quantize(many));
+            assertEquals(seq.countAmongiByColour(many), p4.countAmongiByColour(many));
+        }
+    }
+
+    @Test
+    public void testTileScanner() {
+        SequentialFinder seq = new SequentialFinder();
+        TileScanner[] scanners = {new TileScanner(1, 1), new TileScanner(7, 3), new TileScanner(Integer.MAX_VALUE, Integer.MAX_VALUE)};
 
         for (String file : files) {
             Image img = new Image(file);
 
             AbstractMap<Integer, Integer> c_seq = seq.countAmongiByColour(img);
-            AbstractMap<Integer, Integer> c_p1 = p1.countAmongiByColour(img);
-            AbstractMap<Integer, Integer> c_p4 = p4.countAmongiByColour(img);
+            for (TileScanner scanner : scanners) {
+                ColourHistogram counts = new ColourHistogram();
+                scanner.scan(img, 0, img.width, 0, img.height, counts);
+                assertEquals(c_seq, counts.asMap());
+            }
+        }
+    }
+
+    static final String[][] SPRITES = {
+            {".AAA", "AABB", "AAAA", ".AAA", ".A.A"}, {".AAA", "AABB", "AAAA", ".A.A"},
+            {"AAA.", "BBAA", "AAAA", "AAA.", "A.A."}, {"AAA.", "BBAA", "AAAA", "A.A."}};
+
+    /** Small images with few colours and many planted amongi, some of them overlapping or cut off by the edges. */
+    static Image randomImage(long seed, int width, int height, int colours) {
+        Random random = new Random(seed);
+        int[] pixels = new int[width * height];
+        for (int i = 0; i < pixels.length; i++) {
+            // Mostly copy the left neighbour, so that runs of equal colours are common.
+            pixels[i] = i % width > 0 && random.nextBoolean() ? pixels[i - 1] : 0xFF000000 | random.nextInt(colours);
+        }
+        for (int n = 0; n < width * height / 80; n++) {
+            String[] sprite = SPRITES[random.nextInt(SPRITES.length)];
+            int a = 0xFF000000 | random.nextInt(colours), b = 0xFF000000 | ((a + 1 + random.nextInt(colours - 1)) % colours);
+            int x0 = random.nextInt(width + 2) - 2, y0 = random.nextInt(height + 2) - 2;
+            for (int dy = 0; dy < sprite.length; dy++) {
+                for (int dx = 0; dx < 4; dx++) {
+                    int x = x0 + dx, y = y0 + dy;
+                    char c = sprite[dy].charAt(dx);
+                    if (c != '.' && x >= 0 && x < width && y >= 0 && y < height) pixels[y * width + x] = c == 'A' ? a : b;
+                }
+            }
+        }
+        return new Image(width, height, pixels);
+    }
+
+    /** Reference count: Amongus.detect on every pixel, in any order. */
+    static HashMap<Integer, Integer> bruteForce(Image img) {
+        HashMap<Integer, Integer> counts = new HashMap<>();
+        for (int x = 0; x < img.width; x++) {
+            for (int y = 0; y < img.height; y++) {
+                if (Amongus.detect(x, y, img)) counts.merge(Amongus.bodyColor(x, y, img), 1, Integer::sum);
+            }
+        }
+        return counts;
+    }
+
+    @Test
+    public void testRandomImages() {
+        SequentialFinder seq = new SequentialFinder();
+        try (ParallelFinderSubtotals pT = new ParallelFinderSubtotals(4, 13, 7);
+             ParallelFinderSubtotals pA = new ParallelFinderSubtotals(4)) {
+            int found = 0;
+            for (int seed = 0; seed < 40; seed++) {
+                Image img = randomImage(seed, 97 + seed, 61 + 2 * seed, 3 + seed % 8);
+                HashMap<Integer, Integer> expected = bruteForce(img);
+                found += expected.values().stream().mapToInt(Integer::intValue).sum();
+
+                assertEquals(expected, seq.countAmongiByColour(img));
+                assertEquals(expected, pT.countAmongiByColour(img));
+                assertEquals(expected, pA.countAmongiByColour(img));
+            }
+            assertTrue(found > 200);
+        }
+    }
+
+    @Test
+    public void testIncremental() {
+        for (int seed = 0; seed < 10; seed++) {
+            Image img = randomImage(seed, 83, 57, 3 + seed % 5);
+            IncrementalFinder finder = new IncrementalFinder(img);
+            assertEquals(bruteForce(img), finder.counts());
+
+            Random random = new Random(seed);
+            for (int batch = 0; batch < 30; batch++) {
+                int n = 1 + random.nextInt(40);
+                int[] xs = new int[n], ys = new int[n], colours = new int[n];
+                for (int i = 0; i < n; i++) {
+                    xs[i] = random.nextInt(img.width);
+                    ys[i] = random.nextInt(img.height);
+                    colours[i] = 0xFF000000 | random.nextInt(3 + seed % 5);
+                }
+                finder.update(xs, ys, colours, n);
+                HashMap<Integer, Integer> expected = bruteForce(img);
+                assertEquals(expected, finder.counts());
+                assertEquals(expected.values().stream().mapToInt(Integer::intValue).sum(), finder.size());
+            }
+        }
+
+        // A planted amongus appears and disappears with single-pixel edits.
+        Image blank = new Image(10, 10, new int[100]);
+        IncrementalFinder finder = new IncrementalFinder(blank);
+        String[] sprite = SPRITES[0];
+        for (int dy = 0; dy < sprite.length; dy++) {
+            for (int dx = 0; dx < 4; dx++) {
+                char c = sprite[dy].charAt(dx);
+                if (c != '.') finder.update(3 + dx, 2 + dy, c == 'A' ? 0xFF0000FF : 0xFF00FF00);
+            }
+        }
+        assertEquals(1, finder.size());
+        assertEquals(Integer.valueOf(1), finder.counts().get(0xFF0000FF));
+        finder.update(4, 4, 0);
+        assertEquals(0, finder.size());
+        assertTrue(finder.counts().isEmpty());
+    }
 
-            assertEquals(c_seq, c_p1);
-            assertEquals(c_seq, c_p4);
+    @Test
+    public void testTimelapse() throws IOException {
+        File csv = File.createTempFile("placements", ".csv");
+        File bin = File.createTempFile("placements", ".bin");
+        csv.deleteOnExit();
+        bin.deleteOnExit();
+
+        // Random placements on a small canvas, one per millisecond, in both log formats.
+        Random random = new Random(7);
+        int events = 50000;
+        try (PrintWriter out = new PrintWriter(csv); PixelEventLog.Writer binary = new PixelEventLog.Writer(bin.getPath())) {
+            out.println("time,x,y,colour");
+            for (int i = 0; i < events; i++) {
+                int x = random.nextInt(71), y = random.nextInt(53), rgb = random.nextInt(4);
+                out.println(i + "," + x + "," + y + "," + String.format("#%06X", rgb));
+                binary.write(i, x, y, 0xFF000000 | rgb);
+            }
+        }
+
+        Image[] canvases = new Image[2];
+        for (int f = 0; f < 2; f++) {
+            Image canvas = randomImage(f, 71, 53, 4);
+            List<Long> reports = new ArrayList<>();
+            Timelapse timelapse = new Timelapse(canvas, 20000, 0);
+            assertEquals(events, timelapse.replay(f == 0 ? csv.getPath() : bin.getPath(), (n, time, counts) -> reports.add(n)));
+            assertEquals(Arrays.asList(20000L, 40000L, 50000L), reports);
+            canvases[f] = canvas;
+        }
+
+        // Same final canvas from both formats (every pixel is placed many times), and the counts match it.
+        Image canvas = canvases[0];
+        for (int y = 0; y < canvas.height; y++) {
+            for (int x = 0; x < canvas.width; x++) {
+                assertEquals(canvas.getColor(x, y), canvases[1].getColor(x, y));
+            }
+        }
+        List<AbstractMap<Integer, Integer>> last = new ArrayList<>();
+        List<Long> times = new ArrayList<>();
+        new Timelapse(canvas, 0, 15000).replay(bin.getPath(), (n, time, counts) -> {
+            times.add(time);
+            last.add(counts);
+        });
+        assertEquals(Arrays.asList(15000L, 30000L, 45000L, 49999L), times);
+        assertEquals(bruteForce(canvas), last.get(last.size() - 1));
+    }
+
+    @Test
+    public void testLocator() {
+        // Each sprite on its own: SPRITES is normal right, small right, normal left, small left.
+        int[] kinds = {Amongus.RIGHT | Amongus.NORMAL, Amongus.RIGHT | Amongus.SMALL, Amongus.LEFT | Amongus.NORMAL, Amongus.LEFT | Amongus.SMALL};
+        for (int s = 0; s < SPRITES.length; s++) {
+            int[] pixels = new int[8 * 8];
+            for (int dy = 0; dy < SPRITES[s].length; dy++) {
+                for (int dx = 0; dx < 4; dx++) {
+                    char c = SPRITES[s][dy].charAt(dx);
+                    if (c != '.') pixels[(2 + dy) * 8 + 2 + dx] = c == 'A' ? 0xFF0000FF : 0xFF00FF00;
+                }
+            }
+            Image img = new Image(8, 8, pixels);
+            assertEquals(kinds[s], Amongus.classify(2, 2, img));
+            assertEquals(0xFF00FF00, Amongus.visorColor(2, 2, img, kinds[s]));
+        }
+
+        try (AmongiLocator locator = new AmongiLocator(4)) {
+            for (int seed = 0; seed < 20; seed++) {
+                Image img = randomImage(seed, 97 + seed, 61 + 2 * seed, 3 + seed % 8);
+                AmongiPositions positions = locator.locate(img);
+                assertEquals(bruteForce(img), positions.countByColour());
+
+                for (int i = 0; i < positions.size(); i++) {
+                    int x = positions.x(i), y = positions.y(i);
+                    assertTrue(Amongus.detect(x, y, img));
+                    assertEquals(Amongus.classify(x, y, img), positions.kind(i));
+                    assertEquals(Amongus.bodyColor(x, y, img), positions.bodyColour(i));
+                }
+                for (int y = 0; y < img.height; y++) {
+                    for (int x = 0; x < img.width; x++) {
+                        assertEquals(Amongus.detect(x, y, img), Amongus.classify(x, y, img) != Amongus.NONE);
+                    }
+                }
+
+                Random random = new Random(seed);
+                for (int q = 0; q < 20; q++) {
+                    int x1 = random.nextInt(img.width + 20) - 10, y1 = random.nextInt(img.height + 20) - 10;
+                    int x2 = x1 + random.nextInt(150), y2 = y1 + random.nextInt(150);
+                    int expected = 0;
+                    for (int y = Math.max(0, y1); y < Math.min(img.height, y2); y++) {
+                        for (int x = Math.max(0, x1); x < Math.min(img.width, x2); x++) {
+                            if (Amongus.detect(x, y, img)) expected++;
+                        }
+                    }
+                    assertEquals(expected, positions.countIn(x1, y1, x2, y2));
+                }
+            }
+
+            Image img = new Image(files[0]);
+            assertEquals(new SequentialFinder().countAmongiByColour(img), locator.countAmongiByColour(img));
+            PalettedImage paletted = PalettedImage.quantize(img);
+            if (paletted != null) assertEquals(new SequentialFinder().countAmongiByColour(img), locator.countAmongiByColour(paletted));
+        }
+    }
+
+    @Test
+    public void testPatterns() {
+        SequentialFinder seq = new SequentialFinder();
+        try (PatternFinder patterns = new PatternFinder(4)) {
+            for (int seed = 0; seed < 20; seed++) {
+                Image img = randomImage(seed, 97 + seed, 61 + 2 * seed, 3 + seed % 8);
+                for (int y = 0; y < img.height; y++) {
+                    for (int x = 0; x < img.width; x++) {
+                        int match = Amongus.PATTERNS.match(x, y, img);
+                        assertEquals(Amongus.classify(x, y, img), match < 0 ? Amongus.NONE : Amongus.PATTERN_KINDS[match]);
+                    }
+                }
+                assertEquals(seq.countAmongiByColour(img), patterns.countAmongiByColour(img));
+            }
+            Image img = new Image(files[0]);
+            assertEquals(seq.countAmongiByColour(img), patterns.countAmongiByColour(img));
+        }
+
+        // A new sprite without new code: a 2x2 block surrounded by other colours.
+        PatternSet blocks = PatternSet.compile(new PatternSet.Pattern("block", 1, 1, ".aa.", "aAAa", "aAAa", ".aa."));
+        Image img = new Image(5, 4, new int[]{
+                0, 0, 0, 0, 0,
+                0, 7, 7, 0, 7,
+                0, 7, 7, 0, 0,
+                0, 0, 0, 0, 0});
+        try (PatternFinder finder = new PatternFinder(blocks, 2)) {
+            HashMap<Integer, Integer> expected = new HashMap<>();
+            expected.put(7, 1);
+            assertEquals(expected, finder.countAmongiByColour(img));
+        }
+    }
+
+    @Test
+    public void testBitplane() {
+        SequentialFinder seq = new SequentialFinder();
+        try (BitplaneFinder bitplane = new BitplaneFinder(4)) {
+            for (int seed = 0; seed < 40; seed++) {
+                Image img = randomImage(seed, 60 + 3 * seed, 40 + seed, 3 + seed % 8); // widths across word boundaries
+                assertEquals(bruteForce(img), bitplane.countAmongiByColour(img));
+            }
+            for (String file : new String[]{files[0], files[1]}) {
+                Image img = new Image(file);
+                assertEquals(seq.countAmongiByColour(img), bitplane.countAmongiByColour(img));
+                assertEquals(seq.countAmongiByColour(img), bitplane.countAmongiByColour(new Image(file, Image.Layout.TILED)));
+            }
+        }
+    }
+
+    @Test
+    public void testAffinity() {
+        SequentialFinder seq = new SequentialFinder();
+        try (AffinityFinder affinity = new AffinityFinder(3)) {
+            for (int seed = 0; seed < 10; seed++) {
+                Image img = randomImage(seed, 100 + 13 * seed, 70 + 29 * seed, 3 + seed % 8); // partial tiles
+                Image tiles = affinity.load(img);
+                assertTrue(tiles.isMapped());
+                assertEquals(bruteForce(img), affinity.countAmongiByColour(tiles));
+                assertEquals(bruteForce(img), seq.countAmongiByColour(tiles));
+            }
+            for (String file : new String[]{files[0], files[1]}) {
+                Image img = new Image(file);
+                Image tiles = affinity.load(img);
+                AbstractMap<Integer, Integer> expected = seq.countAmongiByColour(img);
+                for (int run = 0; run < 3; run++) {
+                    assertEquals(expected, affinity.countAmongiByColour(tiles));
+                }
+                assertEquals(expected, affinity.countAmongiByColour(img));
+            }
+        }
+    }
+
+    @Test
+    public void testTileTasks() {
+        SequentialFinder seq = new SequentialFinder();
+        try (TileTaskFinder tasks = new TileTaskFinder(new TileScanner(37, 11, TileScanner.Kernel.LANES), 0)) {
+            for (int seed = 0; seed < 10; seed++) {
+                Image img = randomImage(seed, 100 + 13 * seed, 70 + 29 * seed, 3 + seed % 8); // partial tiles
+                assertEquals(bruteForce(img), tasks.countAmongiByColour(img));
+            }
+        }
+        Image img = new Image(files[0]);
+        AbstractMap<Integer, Integer> expected = seq.countAmongiByColour(img);
+        try (TileTaskFinder tasks = new TileTaskFinder()) {
+            assertEquals(expected, tasks.countAmongiByColour(img));
+        }
+        // A deadline that cannot be met cancels the call.
+        try (TileTaskFinder tasks = new TileTaskFinder(new TileScanner(64, 64, TileScanner.Kernel.SCALAR), 1)) {
+            Image wide = new Image(files[1]);
+            try {
+                tasks.countAmongiByColour(wide);
+                fail("Expected the deadline to pass");
+            } catch (CancellationException expectedCancellation) {
+                // The subtasks are stopped before the call returns.
+            }
+        }
+    }
+
+    @Test
+    public void testPooled() {
+        SequentialFinder seq = new SequentialFinder();
+        try (ParallelFinderPooled p1 = new ParallelFinderPooled(4, 1, 1);
+             ParallelFinderPooled pT = new ParallelFinderPooled(4, 37, 11);
+             ParallelFinderPooled pA = new ParallelFinderPooled(4)) { // adaptive
+            for (int seed = 0; seed < 10; seed++) {
+                Image img = randomImage(seed, 100 + 13 * seed, 70 + 29 * seed, 3 + seed % 8); // partial leaves
+                AbstractMap<Integer, Integer> expected = bruteForce(img);
+                assertEquals(expected, p1.countAmongiByColour(img));
+                assertEquals(expected, pT.countAmongiByColour(img));
+                assertEquals(expected, pA.countAmongiByColour(img));
+            }
+            for (String file : new String[]{files[0], files[1]}) {
+                Image rowMajor = new Image(file);
+                Image tiled = new Image(file, Image.Layout.TILED); // Scanned with the pooled scratch rows
+                AbstractMap<Integer, Integer> expected = seq.countAmongiByColour(rowMajor);
+                AbstractMap<Integer, Integer> first = pA.countAmongiByColour(rowMajor);
+                assertEquals(expected, first);
+                assertEquals(expected, pT.countAmongiByColour(tiled));
+                // The pooled histograms are cleared between counts, and results do not share them.
+                assertEquals(expected, pA.countAmongiByColour(tiled));
+                assertEquals(expected, first);
+            }
+            assertEquals(seq.countAmongiByColour(new Image(files[0])), p1.countAmongiByColour(new Image(files[0])));
+        }
+    }
+
+    @Test
+    public void testCancellation() {
+        try (ParallelFinderSubtotals finder = new ParallelFinderSubtotals(4)) {
+            Image img = new Image(files[1]);
+            AbstractMap<Integer, Integer> expected = finder.countAmongiByColour(img);
+
+            PartialCounts full = finder.countAmongiByColour(img, CancellationToken.create());
+            assertTrue(full.isComplete());
+            assertEquals(1.0, full.coverage());
+            assertEquals(expected, full.counts);
+
+            CancellationToken cancelled = CancellationToken.create();
+            cancelled.cancel();
+            PartialCounts none = finder.countAmongiByColour(img, cancelled);
+            assertEquals(0, none.scannedAnchors);
+            assertTrue(none.counts.isEmpty());
+
+            // Stopped part-way: counts are those of the scanned part, so never more than the full counts. A full count
+            // checks the token at least once per leaf and per band, far more often than 10 times.
+            PartialCounts partial = finder.countAmongiByColour(img, CancellationToken.afterChecks(10));
+            assertTrue(partial.scannedAnchors < partial.totalAnchors);
+            for (Integer colour : partial.counts.keySet()) {
+                assertTrue(partial.counts.get(colour) <= expected.get(colour));
+            }
+        }
+        assertFalse(CancellationToken.withTimeout(Duration.ofDays(365 * 1000)).isCancelled());
+        assertTrue(CancellationToken.withTimeout(Duration.ZERO).isCancelled());
+        CancellationToken twice = CancellationToken.afterChecks(2);
+        assertFalse(twice.isCancelled());
+        assertFalse(twice.isCancelled());
+        assertTrue(twice.isCancelled());
+        assertTrue(twice.isCancelled());
+    }
+
+    @Test
+    public void testParallelPng() throws IOException {
+        Random random = new Random(7);
+        int[] types = {BufferedImage.TYPE_INT_RGB, BufferedImage.TYPE_INT_ARGB, BufferedImage.TYPE_BYTE_INDEXED};
+        for (int type : types) {
+            // Noise and flat areas, so that the writer picks all filter types; large enough for several blocks.
+            BufferedImage img = new BufferedImage(613, 701, type);
+            for (int y = 0; y < img.getHeight(); y++) {
+                for (int x = 0; x < img.getWidth(); x++) {
+                    img.setRGB(x, y, y % 100 < 50 ? random.nextInt() : 0xFF000000 | (x / 7 * 0x10101));
+                }
+            }
+            File png = File.createTempFile("decoder", ".png");
+            png.deleteOnExit();
+            ImageIO.write(img, "png", png);
+            Image expected = Image.decodeImageIO(png.getPath(), Image.Layout.ROW_MAJOR);
+            for (int p : new int[]{1, 3}) {
+                for (Image.Layout layout : Image.Layout.values()) {
+                    Image decoded = ParallelPngDecoder.decode(png.getPath(), layout, p);
+                    for (int y = 0; y < img.getHeight(); y++) {
+                        for (int x = 0; x < img.getWidth(); x++) {
+                            assertEquals(expected.getColor(x, y), decoded.getColor(x, y));
+                        }
+                    }
+                }
+            }
+        }
+        Image expected = Image.decodeImageIO(files[0], Image.Layout.ROW_MAJOR);
+        assertTrue(Arrays.equals(expected.rowMajorPixels(), ParallelPngDecoder.decode(files[0], Image.Layout.ROW_MAJOR, 4).rowMajorPixels()));
+
+        // Only files that are not PNGs are left to ImageIO; a truncated PNG is an error, not decoded twice.
+        File text = File.createTempFile("text", ".png");
+        text.deleteOnExit();
+        Files.writeString(text.toPath(), "Not an image");
+        assertNull(ParallelPngDecoder.decode(text.getPath(), Image.Layout.ROW_MAJOR, 2));
+        // A palette PNG with more transparency entries than palette entries.
+        File malformed = File.createTempFile("malformed", ".png");
+        malformed.deleteOnExit();
+        ByteBuffer png = ByteBuffer.allocate(8 + 25 + 15 + 12 + 300);
+        png.putLong(0x89504E470D0A1A0AL);
+        png.putInt(13).putInt(0x49484452).putInt(1).putInt(1).put((byte) 8).put((byte) 3).put((byte) 0).put((byte) 0).put((byte) 0).putInt(0);
+        png.putInt(3).putInt(0x504C5445).put((byte) 1).put((byte) 2).put((byte) 3).putInt(0);
+        png.putInt(300).putInt(0x74524E53);
+        Files.write(malformed.toPath(), png.array());
+        try {
+            ParallelPngDecoder.decode(malformed.getPath(), Image.Layout.ROW_MAJOR, 2);
+            fail("Expected a malformed tRNS chunk to fail");
+        } catch (IOException e) {
+            // Not an ArrayIndexOutOfBoundsException, which would escape the callers' IOException handling
+        }
+        File truncated = File.createTempFile("truncated", ".png");
+        truncated.deleteOnExit();
+        byte[] bytes = Files.readAllBytes(Path.of(files[0]));
+        Files.write(truncated.toPath(), Arrays.copyOf(bytes, bytes.length / 2));
+        try {
+            new Image(truncated.getPath());
+            fail("Expected a truncated PNG to fail");
+        } catch (UncheckedIOException e) {
+            assertTrue(e.getCause() instanceof IOException);
+        }
+    }
+
+    @Test
+    public void testShards() throws Exception {
+        // A worker in another JVM, as on another machine, next to two in this one with different finders.
+        Process child = new ProcessBuilder(new File(System.getProperty("java.home"), "bin/java").getPath(),
+                "-cp", System.getProperty("java.class.path"), ShardWorker.class.getName(), "0", "2", "-local").start();
+        try (ShardWorker sequential = new ShardWorker(new SequentialFinder(), 0, true);
+             BitplaneFinder bitplane = new BitplaneFinder(2);
+             ShardWorker bitplaneWorker = new ShardWorker(bitplane, 0, true)) {
+            String line = new BufferedReader(new InputStreamReader(child.getInputStream())).readLine();
+            int childPort = Integer.parseInt(line.substring(line.lastIndexOf(' ') + 1));
+            ServerSocket unused = new ServerSocket(0, 1, InetAddress.getLoopbackAddress());
+            int deadPort = unused.getLocalPort();
+            unused.close(); // Nothing listens here: the coordinator must do without this worker
+
+            List<InetSocketAddress> workers = new ArrayList<>();
+            for (int port : new int[]{childPort, sequential.port(), bitplaneWorker.port(), deadPort}) {
+                workers.add(new InetSocketAddress(InetAddress.getLoopbackAddress(), port));
+            }
+            try (ShardCoordinator coordinator = new ShardCoordinator(workers, 37)) {
+                for (int seed = 0; seed < 10; seed++) {
+                    Image img = randomImage(seed, 50 + 17 * seed, 40 + 23 * seed, 3 + seed % 8); // tiles across sprites
+                    assertEquals(bruteForce(img), coordinator.countAmongiByColour(img));
+                }
+            }
+            Image img = new Image(files[0]);
+            try (ShardCoordinator coordinator = new ShardCoordinator(workers.subList(0, 3), 500)) {
+                assertEquals(new SequentialFinder().countAmongiByColour(img), coordinator.countAmongiByColour(img));
+            }
+        } finally {
+            child.destroy();
+        }
+    }
+
+    @Test
+    public void testCachingFinder() throws IOException {
+        Path directory = Files.createTempDirectory("amongus-cache");
+        Image img = randomImage(3, 300, 250, 5);
+        HashMap<Integer, Integer> expected = bruteForce(img);
+        try (CachingFinder cache = new CachingFinder(new SequentialFinder(), directory, 32, 1000, 3)) {
+            assertEquals(expected, cache.countAmongiByColour(img));
+            long tiles = cache.misses() + cache.hits();
+            long misses = cache.misses();
+            assertEquals(expected, cache.countAmongiByColour(img));
+            assertEquals(misses, cache.misses()); // Unchanged: all hits
+
+            // A changed pixel invalidates its tile and the neighbours whose anchors read it, nothing else.
+            Image changed = new Image(img.width, img.height, img.rowMajorPixels().clone(), Image.Layout.ROW_MAJOR);
+            changed.setColor(64, 64, 0xFF123456);
+            assertEquals(bruteForce(changed), cache.countAmongiByColour(changed));
+            long recounted = cache.misses() - misses;
+            assertTrue(recounted >= 1 && recounted <= 4);
+            assertEquals(3 * tiles, cache.hits() + cache.misses());
+        }
+        // The files outlive the finder.
+        try (CachingFinder cache = new CachingFinder(new SequentialFinder(), directory, 32, 1000, 2)) {
+            assertEquals(expected, cache.countAmongiByColour(img));
+            assertEquals(0, cache.misses());
+        }
+        // At most maxFiles files are kept, and a finder with room for fewer still counts correctly.
+        try (BitplaneFinder bitplane = new BitplaneFinder(1);
+             CachingFinder cache = new CachingFinder(bitplane, directory, 32, 10, 2)) {
+            assertEquals(expected, cache.countAmongiByColour(img));
+            assertEquals(10, directory.toFile().list().length);
+        }
+        Image file = new Image(files[0]);
+        try (CachingFinder cache = new CachingFinder(Files.createTempDirectory("amongus-cache"))) {
+            assertEquals(new SequentialFinder().countAmongiByColour(file), cache.countAmongiByColour(file));
+        }
+    }
+
+    @Test
+    public void testLaneKernel() {
+        TileScanner scalar = new TileScanner(37, 11, TileScanner.Kernel.SCALAR);
+        TileScanner lanes = new TileScanner(37, 11, TileScanner.Kernel.LANES);
+        TileScanner wideLanes = new TileScanner(Integer.MAX_VALUE, 64, TileScanner.Kernel.LANES);
+
+        for (int seed = 0; seed < 40; seed++) {
+            // Include images narrower than a word of lanes, and narrower than an amongus.
+            Image img = randomImage(seed, seed < 10 ? 3 + seed * 7 : 97 + seed * 5, 61 + 2 * seed, 3 + seed % 8);
+            HashMap<Integer, Integer> expected = bruteForce(img);
+
+            for (TileScanner scanner : new TileScanner[]{scalar, lanes, wideLanes}) {
+                ColourHistogram counts = new ColourHistogram();
+                scanner.scan(img, 0, img.width, 0, img.height, counts);
+                assertEquals(expected, counts.asMap());
+            }
+        }
+        for (String file : files) {
+            Image img = new Image(file);
+            ColourHistogram c_scalar = new ColourHistogram(), c_lanes = new ColourHistogram();
+            scalar.scan(img, 0, img.width, 0, img.height, c_scalar);
+            lanes.scan(img, 0, img.width, 0, img.height, c_lanes);
+            assertEquals(c_scalar.asMap(), c_lanes.asMap());
         }
     }
 }
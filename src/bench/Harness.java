@@ -0,0 +1,485 @@
+package bench;
+
+import data.Amongus;
+import data.Image;
+import data.Metrics;
+import data.ParallelPngDecoder;
+import solutions.AffinityFinder;
+import solutions.BitplaneFinder;
+import solutions.CachingFinder;
+import solutions.FinderService;
+import solutions.PaletteFinder;
+import solutions.PatternFinder;
+import solutions.ParallelFinderGlobalHashMap;
+import solutions.ParallelFinderPooled;
+import solutions.ParallelFinderSubtotals;
+import solutions.SequentialFinder;
+import solutions.StreamingFinder;
+import solutions.TileTaskFinder;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.InputStreamReader;
+import java.io.PrintWriter;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.stream.Stream;
+
+/**
+ * Benchmark harness for the finders, replacing the hand-rolled loop of MeasureRuntimes.benchmark.
+ *
+ * Works like JMH in average-time mode: every benchmark/parameter combination runs in fresh JVM forks, with warmup
+ * iterations that are thrown away and measurement iterations that are kept. Each iteration also records the bytes
+ * allocated (by the threads alive at its end, see allocatedSince) and the GC count/time, like JMH's gc profiler.
+ * Results are written in JMH's JSON format, which MeasurePerformance reads. (JMH itself is not on this project's classpath, see lib/.)
+ *
+ * Usage: Harness [-bm regex] [-image a.png,b.png] [-p 1,4] [-T 500] [-Ty 500] [-wi 3] [-i 5] [-f 1] [-o results.json]
+ * Every list option is a parameter axis; each benchmark is run for all combinations of the parameters it uses.
+ * -f 0 runs everything in this JVM, which is faster but lets the benchmarks influence each other's JIT profile.
+ */
+public class Harness {
+
+    /**
+     * Prepares one benchmark for the given parameters and returns the code to time. Preparation is not timed.
+     * Whatever has to be released afterwards, e.g. finders with their own threads, is added to teardown.
+     */
+    interface Benchmark {
+        Callable<Object> setup(Map<String, String> params, List<AutoCloseable> teardown) throws Exception;
+    }
+
+    private static final Map<String, Benchmark> benchmarks = new LinkedHashMap<>();
+    private static final Map<String, List<String>> parameterNames = new HashMap<>();
+
+    static {
+        register("finder.Sequential", (params, teardown) -> {
+            Image img = image(params);
+            SequentialFinder finder = new SequentialFinder();
+            return () -> finder.countAmongiByColour(img);
+        }, "image");
+        register("finder.ParallelSubtotals", (params, teardown) -> {
+            Image img = image(params);
+            ParallelFinderSubtotals finder = new ParallelFinderSubtotals(intParam(params, "p"), intParam(params, "T"), intParam(params, "Ty"));
+            teardown.add(finder);
+            return () -> finder.countAmongiByColour(img);
+        }, "image", "p", "T", "Ty");
+        register("finder.ParallelPooled", (params, teardown) -> {
+            Image img = image(params);
+            ParallelFinderPooled finder = new ParallelFinderPooled(intParam(params, "p"), intParam(params, "T"), intParam(params, "Ty"));
+            teardown.add(finder);
+            return () -> finder.countAmongiByColour(img);
+        }, "image", "p", "T", "Ty");
+        register("finder.ParallelAdaptive", (params, teardown) -> {
+            Image img = image(params);
+            ParallelFinderSubtotals finder = new ParallelFinderSubtotals(intParam(params, "p"));
+            teardown.add(finder);
+            return () -> finder.countAmongiByColour(img);
+        }, "image", "p");
+        register("finder.ParallelDeadline", (params, teardown) -> {
+            // Adaptive finder with a deadline that never passes, to measure the cost of the cancellation checks.
+            Image img = image(params);
+            ParallelFinderSubtotals finder = new ParallelFinderSubtotals(intParam(params, "p"));
+            teardown.add(finder);
+            return () -> finder.countAmongiByColour(img, Duration.ofDays(1)).counts;
+        }, "image", "p");
+        register("finder.ParallelGlobal", (params, teardown) -> {
+            Image img = image(params);
+            ParallelFinderGlobalHashMap finder = new ParallelFinderGlobalHashMap(intParam(params, "p"), intParam(params, "T"));
+            teardown.add(finder);
+            return () -> finder.countAmongiByColour(img);
+        }, "image", "p", "T");
+        register("finder.Palette", (params, teardown) -> {
+            Image img = image(params);
+            PaletteFinder finder = new PaletteFinder(intParam(params, "p"), intParam(params, "Ty"));
+            teardown.add(finder);
+            return () -> finder.countAmongiByColour(img);
+        }, "image", "p", "Ty");
+        register("finder.Affinity", (params, teardown) -> {
+            // Loading into the off-heap tiles is part of the setup, like decoding is for the other finders.
+            AffinityFinder finder = new AffinityFinder(intParam(params, "p"));
+            teardown.add(finder);
+            Image img = finder.load(image(params));
+            return () -> finder.countAmongiByColour(img);
+        }, "image", "p");
+        register("finder.Bitplane", (params, teardown) -> {
+            Image img = image(params);
+            BitplaneFinder finder = new BitplaneFinder(intParam(params, "p"));
+            teardown.add(finder);
+            return () -> finder.countAmongiByColour(img);
+        }, "image", "p");
+        register("finder.Pattern", (params, teardown) -> {
+            Image img = image(params);
+            PatternFinder finder = new PatternFinder(intParam(params, "p"));
+            teardown.add(finder);
+            return () -> finder.countAmongiByColour(img);
+        }, "image", "p");
+        register("finder.TileTasks", (params, teardown) -> {
+            // One thread per tile: virtual threads if the JVM has them, otherwise a pool of platform threads.
+            Image img = image(params);
+            TileTaskFinder finder = new TileTaskFinder();
+            teardown.add(finder);
+            return () -> finder.countAmongiByColour(img);
+        }, "image");
+        register("finder.Cached", (params, teardown) -> {
+            // After the first (warmup) iteration every tile is cached, so this measures the cost of hashing.
+            Image img = image(params);
+            Path directory = Files.createTempDirectory("amongus-cache");
+            CachingFinder finder = new CachingFinder(new SequentialFinder(), directory, 256, 1 << 20, intParam(params, "p"));
+            teardown.add(finder);
+            teardown.add(() -> {
+                try (Stream<Path> files = Files.list(directory)) {
+                    for (Path file : (Iterable<Path>) files::iterator) Files.delete(file);
+                }
+                Files.delete(directory);
+            });
+            return () -> finder.countAmongiByColour(img);
+        }, "image", "p");
+        register("finder.Streaming", (params, teardown) -> {
+            String path = params.get("image");
+            StreamingFinder finder = new StreamingFinder(intParam(params, "Ty"));
+            return () -> finder.countAmongiByColour(path);
+        }, "image", "Ty");
+        register("service.Batch", (params, teardown) -> {
+            // Counts the image four times through one service, decoding each copy while the previous one is counted.
+            String path = params.get("image");
+            FinderService service = new FinderService(intParam(params, "p"), 2);
+            teardown.add(service);
+            return () -> {
+                int total = 0;
+                for (CompletableFuture<AbstractMap<Integer, Integer>> result : service.countAllPaths(Stream.of(path, path, path, path))) {
+                    total += result.join().size();
+                }
+                return total;
+            };
+        }, "image", "p");
+        register("io.ImageIO", (params, teardown) -> {
+            String path = params.get("image");
+            return () -> Image.decodeImageIO(path, Image.Layout.ROW_MAJOR).width;
+        }, "image");
+        register("io.ParallelPng", (params, teardown) -> {
+            String path = params.get("image");
+            int p = intParam(params, "p");
+            return () -> ParallelPngDecoder.decode(path, Image.Layout.ROW_MAJOR, p).width;
+        }, "image", "p");
+        register("micro.detect", (params, teardown) -> {
+            Image img = image(params);
+            return () -> {
+                int found = 0;
+                for (int y = 0; y < img.height; y++) {
+                    for (int x = 0; x < img.width; x++) {
+                        if (Amongus.detect(x, y, img)) found++;
+                    }
+                }
+                return found;
+            };
+        }, "image");
+        register("micro.getColor", (params, teardown) -> {
+            Image img = image(params);
+            return () -> {
+                int sum = 0;
+                for (int y = 0; y < img.height; y++) {
+                    for (int x = 0; x < img.width; x++) {
+                        sum += img.getColor(x, y);
+                    }
+                }
+                return sum;
+            };
+        }, "image");
+    }
+
+    /** Adds a benchmark; names are the parameters it uses, out of the options given on the command line. */
+    static void register(String name, Benchmark benchmark, String... names) {
+        benchmarks.put(name, benchmark);
+        parameterNames.put(name, Arrays.asList(names));
+    }
+
+    private static final Map<String, Image> images = new HashMap<>();
+
+    static Image image(Map<String, String> params) {
+        return images.computeIfAbsent(params.get("image"), Image::new);
+    }
+
+    static int intParam(Map<String, String> params, String name) {
+        return Integer.parseInt(params.get(name));
+    }
+
+    /** Measurements of one iteration. */
+    static class Iteration {
+        final long nanos, allocatedBytes, gcCount, gcMillis;
+
+        Iteration(long nanos, long allocatedBytes, long gcCount, long gcMillis) {
+            this.nanos = nanos;
+            this.allocatedBytes = allocatedBytes;
+            this.gcCount = gcCount;
+            this.gcMillis = gcMillis;
+        }
+    }
+
+    public static void main(String[] args) {
+        try {
+            if (args.length > 0 && args[0].equals("--child")) {
+                runChild(args);
+            } else {
+                run(args);
+            }
+        } catch (Exception e) {
+            e.printStackTrace();
+            System.exit(1);
+        }
+    }
+
+    /** Runs the benchmarks selected by the command-line options and writes the results to the output file. */
+    public static List<String> run(String[] args) throws Exception {
+        Map<String, List<String>> options = new LinkedHashMap<>();
+        options.put("bm", List.of(".*"));
+        options.put("image", List.of("images/place_2k_2k.png"));
+        int cores = Runtime.getRuntime().availableProcessors();
+        options.put("p", cores == 1 ? List.of("1") : List.of("1", String.valueOf(cores)));
+        options.put("T", List.of("500"));
+        options.put("Ty", List.of("500"));
+        options.put("wi", List.of("3"));
+        options.put("i", List.of("5"));
+        options.put("f", List.of("1"));
+        options.put("o", List.of("results.json"));
+        for (int a = 0; a + 1 < args.length; a += 2) {
+            String key = args[a].replaceFirst("^-+", "");
+            if (!options.containsKey(key)) throw new IllegalArgumentException("Unknown option " + args[a]);
+            options.put(key, Arrays.asList(args[a + 1].split(",")));
+        }
+        int warmup = Integer.parseInt(options.get("wi").get(0));
+        int iterations = Integer.parseInt(options.get("i").get(0));
+        int forks = Integer.parseInt(options.get("f").get(0));
+
+        List<String> results = new ArrayList<>();
+        for (String name : benchmarks.keySet()) {
+            if (!name.matches(options.get("bm").get(0))) continue;
+            for (Map<String, String> params : combinations(parameterNames.get(name), options)) {
+                System.out.println("# " + name + " " + params);
+                List<List<Iteration>> perFork = new ArrayList<>();
+                if (forks == 0) {
+                    perFork.add(measure(name, params, warmup, iterations));
+                } else {
+                    for (int f = 0; f < forks; f++) {
+                        perFork.add(fork(name, params, warmup, iterations));
+                    }
+                }
+                results.add(toJson(name, params, forks, warmup, iterations, perFork));
+            }
+        }
+
+        File out = new File(options.get("o").get(0));
+        try (PrintWriter writer = new PrintWriter(out, StandardCharsets.UTF_8)) {
+            writer.println("[");
+            writer.println(String.join(",\n", results));
+            writer.println("]");
+        } catch (FileNotFoundException e) {
+            e.printStackTrace();
+        }
+        System.out.println("Results written to " + out);
+        return results;
+    }
+
+    private static List<Map<String, String>> combinations(List<String> names, Map<String, List<String>> options) {
+        List<Map<String, String>> result = new ArrayList<>();
+        result.add(new LinkedHashMap<>());
+        for (String name : names) {
+            List<Map<String, String>> next = new ArrayList<>();
+            for (Map<String, String> partial : result) {
+                for (String value : options.get(name)) {
+                    Map<String, String> params = new LinkedHashMap<>(partial);
+                    params.put(name, value);
+                    next.add(params);
+                }
+            }
+            result = next;
+        }
+        return result;
+    }
+
+    /** Runs one benchmark in a new JVM with the same classpath and JVM options, and collects its iterations. */
+    private static List<Iteration> fork(String name, Map<String, String> params, int warmup, int iterations) throws Exception {
+        List<String> command = new ArrayList<>();
+        command.add(new File(System.getProperty("java.home"), "bin/java").getPath());
+        for (String jvmArg : ManagementFactory.getRuntimeMXBean().getInputArguments()) {
+            if (!jvmArg.startsWith("-agentlib") && !jvmArg.startsWith("-javaagent")) command.add(jvmArg);
+        }
+        command.add("-cp");
+        command.add(System.getProperty("java.class.path"));
+        command.add(Harness.class.getName());
+        command.add("--child");
+        command.add(name);
+        command.add(encode(params));
+        command.add(String.valueOf(warmup));
+        command.add(String.valueOf(iterations));
+
+        Process process = new ProcessBuilder(command).redirectErrorStream(true).start();
+        List<Iteration> result = new ArrayList<>();
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(process.getInputStream()))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (line.startsWith("#ITER ")) {
+                    String[] t = line.split(" ");
+                    result.add(new Iteration(Long.parseLong(t[1]), Long.parseLong(t[2]), Long.parseLong(t[3]), Long.parseLong(t[4])));
+                } else {
+                    System.out.println(line);
+                }
+            }
+        }
+        if (process.waitFor() != 0 || result.size() != iterations)
+            throw new IllegalStateException("Fork of " + name + " " + params + " failed");
+        return result;
+    }
+
+    private static void runChild(String[] args) throws Exception {
+        String name = args[1];
+        Map<String, String> params = decode(args[2]);
+        for (Iteration it : measure(name, params, Integer.parseInt(args[3]), Integer.parseInt(args[4]))) {
+            System.out.println("#ITER " + it.nanos + " " + it.allocatedBytes + " " + it.gcCount + " " + it.gcMillis);
+        }
+    }
+
+    private static List<Iteration> measure(String name, Map<String, String> params, int warmup, int iterations) throws Exception {
+        if (Metrics.ENABLED) Metrics.reset();
+        List<AutoCloseable> teardown = new ArrayList<>();
+        List<Iteration> result = new ArrayList<>();
+        try {
+            iterate(benchmarks.get(name).setup(params, teardown), warmup, iterations, result);
+        } finally {
+            // With -f 0 all benchmarks share this JVM, so their threads must not outlive them.
+            for (int i = teardown.size() - 1; i >= 0; i--) teardown.get(i).close();
+        }
+        // Covers the setup, warmup and measured iterations of this benchmark.
+        if (Metrics.ENABLED) System.out.print(Metrics.summary());
+        return result;
+    }
+
+    private static void iterate(Callable<Object> task, int warmup, int iterations, List<Iteration> result) throws Exception {
+        for (int i = 0; i < warmup + iterations; i++) {
+            System.gc(); // Start every iteration with a clean heap, outside the measured interval
+            Map<Long, Long> allocated = allocatedBytes();
+            long gcCount = gcCount(), gcMillis = gcMillis();
+            long start = System.nanoTime();
+            Object value = task.call();
+            long end = System.nanoTime();
+            Iteration it = new Iteration(end - start, allocatedSince(allocated), gcCount() - gcCount, gcMillis() - gcMillis);
+            blackhole ^= System.identityHashCode(value);
+            System.out.printf("%s iteration %d: %.3f ms/op%n", i < warmup ? "Warmup" : "Measurement", i + 1, it.nanos / 1e6);
+            if (i >= warmup) result.add(it);
+        }
+    }
+
+    static int blackhole; // Keeps the JIT from discarding results
+
+    /** Bytes allocated so far by every live thread (including Fork/Join workers), by thread id. */
+    private static Map<Long, Long> allocatedBytes() {
+        Map<Long, Long> allocated = new HashMap<>();
+        java.lang.management.ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        if (!(threads instanceof com.sun.management.ThreadMXBean)) return allocated;
+        long[] ids = threads.getAllThreadIds();
+        long[] bytes = ((com.sun.management.ThreadMXBean) threads).getThreadAllocatedBytes(ids);
+        for (int i = 0; i < ids.length; i++) {
+            if (bytes[i] >= 0) allocated.put(ids[i], bytes[i]); // -1: the thread died meanwhile
+        }
+        return allocated;
+    }
+
+    /**
+     * Bytes allocated since the sample before, by the threads alive now. Threads started since then count in full.
+     * The JVM forgets the bytes of threads that die, so threads that end during an iteration (e.g. Fork/Join workers
+     * that time out, or threads of TileTaskFinder and ParallelPngDecoder) are missing: the result is a lower bound.
+     */
+    private static long allocatedSince(Map<Long, Long> before) {
+        long sum = 0;
+        for (Map.Entry<Long, Long> now : allocatedBytes().entrySet()) {
+            sum += Math.max(0, now.getValue() - before.getOrDefault(now.getKey(), 0L));
+        }
+        return sum;
+    }
+
+    private static long gcCount() {
+        long sum = 0;
+        for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) sum += Math.max(0, gc.getCollectionCount());
+        return sum;
+    }
+
+    private static long gcMillis() {
+        long sum = 0;
+        for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) sum += Math.max(0, gc.getCollectionTime());
+        return sum;
+    }
+
+    private static String encode(Map<String, String> params) {
+        StringBuilder sb = new StringBuilder();
+        params.forEach((k, v) -> sb.append(sb.length() == 0 ? "" : ";").append(k).append('=').append(v));
+        return sb.toString();
+    }
+
+    private static Map<String, String> decode(String encoded) {
+        Map<String, String> params = new LinkedHashMap<>();
+        if (encoded.isEmpty()) return params;
+        for (String pair : encoded.split(";")) {
+            int eq = pair.indexOf('=');
+            params.put(pair.substring(0, eq), pair.substring(eq + 1));
+        }
+        return params;
+    }
+
+    /** One result in JMH's JSON format: the primary metric in ms/op, plus gc profiler style secondary metrics. */
+    private static String toJson(String name, Map<String, String> params, int forks, int warmup, int iterations, List<List<Iteration>> perFork) {
+        StringBuilder paramsJson = new StringBuilder();
+        params.forEach((k, v) -> paramsJson.append(paramsJson.length() == 0 ? "" : ", ").append(Json.quote(k)).append(": ").append(Json.quote(v)));
+
+        return "  {\n" +
+                "    \"benchmark\": " + Json.quote(name) + ",\n" +
+                "    \"mode\": \"avgt\",\n" +
+                "    \"threads\": 1,\n" +
+                "    \"forks\": " + forks + ",\n" +
+                "    \"warmupIterations\": " + warmup + ",\n" +
+                "    \"measurementIterations\": " + iterations + ",\n" +
+                "    \"params\": {" + paramsJson + "},\n" +
+                "    \"primaryMetric\": " + metric(perFork, it -> it.nanos / 1e6, "ms/op") + ",\n" +
+                "    \"secondaryMetrics\": {\n" +
+                "      \"\u00b7gc.alloc.rate.norm\": " + metric(perFork, it -> (double) it.allocatedBytes, "B/op") + ",\n" +
+                "      \"\u00b7gc.count\": " + metric(perFork, it -> (double) it.gcCount, "counts") + ",\n" +
+                "      \"\u00b7gc.time\": " + metric(perFork, it -> (double) it.gcMillis, "ms") + "\n" +
+                "    }\n" +
+                "  }";
+    }
+
+    interface Measure {
+        double of(Iteration it);
+    }
+
+    /** Mean, error (half-width of a 99.9% confidence interval, normal approximation) and raw data of a metric. */
+    private static String metric(List<List<Iteration>> perFork, Measure measure, String unit) {
+        List<Double> all = new ArrayList<>();
+        StringBuilder raw = new StringBuilder();
+        for (List<Iteration> fork : perFork) {
+            StringBuilder values = new StringBuilder();
+            for (Iteration it : fork) {
+                double v = measure.of(it);
+                all.add(v);
+                values.append(values.length() == 0 ? "" : ", ").append(Json.number(v));
+            }
+            raw.append(raw.length() == 0 ? "" : ", ").append('[').append(values).append(']');
+        }
+        double mean = all.stream().mapToDouble(Double::doubleValue).average().orElse(Double.NaN);
+        double variance = all.stream().mapToDouble(v -> (v - mean) * (v - mean)).sum() / (all.size() - 1);
+        double error = 3.29 * Math.sqrt(variance / all.size());
+        return "{\"score\": " + Json.number(mean) + ", \"scoreError\": " + Json.number(error) +
+                ", \"scoreUnit\": " + Json.quote(unit) + ", \"rawData\": [" + raw + "]}";
+    }
+}
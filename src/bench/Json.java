@@ -0,0 +1,160 @@
+package bench;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/** Minimal JSON reader and writer for benchmark results (objects, arrays, strings, numbers, booleans, null). */
+class Json {
+    private final String s;
+    private int i = 0;
+
+    private Json(String s) {
+        this.s = s;
+    }
+
+    /** Parses a JSON document into Map (objects), List (arrays), String, Double, Boolean or null. */
+    static Object parse(String text) {
+        Json json = new Json(text);
+        Object value = json.value();
+        json.skipWhitespace();
+        if (json.i != text.length()) throw json.error("trailing characters");
+        return value;
+    }
+
+    private Object value() {
+        skipWhitespace();
+        if (i >= s.length()) throw error("unexpected end");
+        char c = s.charAt(i);
+        switch (c) {
+            case '{':
+                return object();
+            case '[':
+                return array();
+            case '"':
+                return string();
+            case 't':
+                return literal("true", Boolean.TRUE);
+            case 'f':
+                return literal("false", Boolean.FALSE);
+            case 'n':
+                return literal("null", null);
+            default:
+                return number();
+        }
+    }
+
+    private Map<String, Object> object() {
+        Map<String, Object> map = new LinkedHashMap<>();
+        i++; // {
+        skipWhitespace();
+        if (s.charAt(i) == '}') {
+            i++;
+            return map;
+        }
+        while (true) {
+            skipWhitespace();
+            String key = string();
+            skipWhitespace();
+            expect(':');
+            map.put(key, value());
+            skipWhitespace();
+            if (s.charAt(i) == ',') {
+                i++;
+            } else {
+                expect('}');
+                return map;
+            }
+        }
+    }
+
+    private List<Object> array() {
+        List<Object> list = new ArrayList<>();
+        i++; // [
+        skipWhitespace();
+        if (s.charAt(i) == ']') {
+            i++;
+            return list;
+        }
+        while (true) {
+            list.add(value());
+            skipWhitespace();
+            if (s.charAt(i) == ',') {
+                i++;
+            } else {
+                expect(']');
+                return list;
+            }
+        }
+    }
+
+    private String string() {
+        expect('"');
+        StringBuilder sb = new StringBuilder();
+        while (true) {
+            char c = s.charAt(i++);
+            if (c == '"') return sb.toString();
+            if (c != '\\') {
+                sb.append(c);
+                continue;
+            }
+            char e = s.charAt(i++);
+            switch (e) {
+                case 'n': sb.append('\n'); break;
+                case 't': sb.append('\t'); break;
+                case 'r': sb.append('\r'); break;
+                case 'b': sb.append('\b'); break;
+                case 'f': sb.append('\f'); break;
+                case 'u':
+                    sb.append((char) Integer.parseInt(s.substring(i, i + 4), 16));
+                    i += 4;
+                    break;
+                default: sb.append(e); // " \ /
+            }
+        }
+    }
+
+    private Double number() {
+        int start = i;
+        while (i < s.length() && "+-0123456789.eE".indexOf(s.charAt(i)) >= 0) i++;
+        if (start == i) throw error("unexpected character '" + s.charAt(i) + "'");
+        return Double.valueOf(s.substring(start, i));
+    }
+
+    private Object literal(String word, Object value) {
+        if (!s.startsWith(word, i)) throw error("expected " + word);
+        i += word.length();
+        return value;
+    }
+
+    private void expect(char c) {
+        if (i >= s.length() || s.charAt(i) != c) throw error("expected '" + c + "'");
+        i++;
+    }
+
+    private void skipWhitespace() {
+        while (i < s.length() && Character.isWhitespace(s.charAt(i))) i++;
+    }
+
+    private IllegalArgumentException error(String message) {
+        return new IllegalArgumentException("Invalid JSON at offset " + i + ": " + message);
+    }
+
+    /** Returns a JSON string literal. */
+    static String quote(String value) {
+        StringBuilder sb = new StringBuilder("\"");
+        for (char c : value.toCharArray()) {
+            if (c == '"' || c == '\\') sb.append('\\').append(c);
+            else if (c == '\n') sb.append("\\n");
+            else if (c < 0x20) sb.append(String.format("\\u%04x", (int) c));
+            else sb.append(c);
+        }
+        return sb.append('"').toString();
+    }
+
+    /** Returns a JSON number; NaN (e.g. the error of a single measurement) is written as a string, like JMH does. */
+    static String number(double value) {
+        return Double.isNaN(value) || Double.isInfinite(value) ? "\"NaN\"" : Double.toString(value);
+    }
+}
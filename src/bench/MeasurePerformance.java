@@ -4,11 +4,15 @@ import java.io.BufferedReader;
 import java.io.File;
 import java.io.FileReader;
 import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.TreeMap;
 
 import bench.MeasureRuntimes.Strategy;
 
@@ -22,8 +26,18 @@ public class MeasurePerformance {
      * command-line args:
      * args[0]: preset for which to compute performance measures.
      * args[1]: # warm-up iterations. These will be ignored (not even be loaded).
+     *
+     * or, for the JSON results of Harness (or JMH):
+     * args[0]: the results file, ending in .json. Warm-up iterations are not in it.
      */
     public static void main(String[] args) {
+        if (args.length == 1 && args[0].endsWith(".json")) {
+            System.out.println("Performance measures for " + args[0]);
+            System.out.println();
+            compute_performance_measures_json(load_results_json(new File(args[0])));
+            return;
+        }
+
         // Process command line arguments
         if (args.length < 2) {
             System.out.println("Please indicate the 'preset number' and 'warmup duration' as command line arguments.");
@@ -116,6 +130,81 @@ public class MeasurePerformance {
         return runtimes;
     }
 
+    /**
+     * Computes the measures of compute_performance_measures from Harness/JMH results, with the same formulas. For every
+     * image, the finder.Sequential result is Tseq; every other benchmark with a p parameter is grouped by its other
+     * parameters, p=1 in a group is T1, and every other p takes the place of P=4 (T4).
+     *
+     * @param results: the parsed JSON results.
+     */
+    @SuppressWarnings("unchecked")
+    static void compute_performance_measures_json(List<Object> results) {
+        Map<String, RuntimeEstimate> Tseq = new HashMap<>(); // per image
+        Map<String, Map<Integer, RuntimeEstimate>> groups = new LinkedHashMap<>(); // "benchmark params without p" -> p -> runtime
+        for (Object o : results) {
+            Map<String, Object> result = (Map<String, Object>) o;
+            String benchmark = (String) result.get("benchmark");
+            Map<String, Object> params = new LinkedHashMap<>((Map<String, Object>) result.getOrDefault("params", Map.of()));
+            RuntimeEstimate runtime = new RuntimeEstimate(rawData_ns((Map<String, Object>) result.get("primaryMetric")));
+            if (benchmark.endsWith("finder.Sequential")) {
+                Tseq.put((String) params.get("image"), runtime);
+            } else if (params.containsKey("p")) {
+                int p = Integer.parseInt((String) params.remove("p"));
+                groups.computeIfAbsent(benchmark + " " + params, k -> new TreeMap<>()).put(p, runtime);
+            }
+        }
+
+        for (Map.Entry<String, Map<Integer, RuntimeEstimate>> group : groups.entrySet()) {
+            System.out.println("<" + group.getKey() + ">");
+            String image = group.getKey().replaceAll(".*image=([^,}]*).*", "$1");
+            RuntimeEstimate seq = Tseq.get(image);
+            RuntimeEstimate T1 = group.getValue().get(1);
+            if (seq != null) System.out.println("Tseq: " + seq);
+            if (T1 != null) System.out.println("T1: " + T1);
+            for (Map.Entry<Integer, RuntimeEstimate> entry : group.getValue().entrySet()) {
+                int p = entry.getKey();
+                RuntimeEstimate TP = entry.getValue();
+                if (p == 1) continue;
+                System.out.println("T" + p + ": " + TP);
+                if (seq == null) continue; // Every measure is relative to Tseq
+                System.out.println("  overhead: " + (TP.mean - seq.mean / p) + " ns");
+                if (T1 != null) {
+                    double c_speedup = seq.mean / T1.mean;
+                    System.out.println("  computational speedup: " + c_speedup);
+                    System.out.println("  efficiency: " + (c_speedup / p) * 100.0 + "%");
+                }
+                System.out.println("  application speedup: " + seq.mean / TP.mean);
+            }
+            System.out.println();
+        }
+    }
+
+    /** Reads a JSON results file written by Harness (or JMH). */
+    @SuppressWarnings("unchecked")
+    static List<Object> load_results_json(File file) {
+        try {
+            return (List<Object>) Json.parse(new String(Files.readAllBytes(file.toPath()), StandardCharsets.UTF_8));
+        } catch (IOException e) {
+            System.out.println("ERROR: could not read " + file + ". Run Harness first!");
+            System.exit(-1);
+            return null;
+        }
+    }
+
+    /** All measurements of a metric, in nanoseconds. */
+    @SuppressWarnings("unchecked")
+    private static List<Long> rawData_ns(Map<String, Object> metric) {
+        String unit = (String) metric.get("scoreUnit");
+        double scale = unit.startsWith("s/") ? 1e9 : unit.startsWith("ms/") ? 1e6 : unit.startsWith("us/") ? 1e3 : 1;
+        List<Long> runtimes = new ArrayList<>();
+        for (Object fork : (List<Object>) metric.get("rawData")) {
+            for (Object value : (List<Object>) fork) {
+                runtimes.add(Math.round((Double) value * scale));
+            }
+        }
+        return runtimes;
+    }
+
     static class RuntimeEstimate {
         double mean;
         double sd;
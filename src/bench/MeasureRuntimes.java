@@ -4,11 +4,15 @@ import java.io.IOException;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.concurrent.Callable;
+import data.Amongus;
+import data.ColourHistogram;
 import data.Image;
+import data.Metrics;
 
 import solutions.ParallelFinderSubtotals;
 import solutions.ParallelFinderGlobalHashMap;
 import solutions.SequentialFinder;
+import solutions.TileScanner;
 
 import java.util.AbstractMap;
 
@@ -26,14 +30,18 @@ public class MeasureRuntimes {
         SEQUENTIAL,          // Sequential execution
         PARALLEL_GLOBAL,     // Parallel execution using a global HashMap
         PARALLEL_LOCAL,      // Parallel execution using local HashMaps
-        THRESHOLD_TEST;      // Parallel execution with varying thresholds
+        THRESHOLD_TEST,      // Parallel execution with varying thresholds
+        TILE_TASKS,          // One thread per tile, compared with Fork/Join
+        TRAVERSAL_TEST;      // Column-wise, row-major and tiled traversal on one thread
     }
 
     static final List<Callable<Object>> strategies = List.of(
             sequential(),
             parallelGlobal(),
             parallelLocal(),
-            thresholdTest()
+            thresholdTest(),
+            tileTasks(),
+            traversalTest()
     );
 
     public static List<Integer> useResults = new ArrayList<>(10000);
@@ -41,6 +49,7 @@ public class MeasureRuntimes {
     public static void main(String[] args) {
         try {
             thresholdTest().call();
+            traversalTest().call();
             int numCores = Runtime.getRuntime().availableProcessors();
             int[] coreCounts = new int[5];
             for (int i = 0; i < 5; i++) {
@@ -50,6 +59,8 @@ public class MeasureRuntimes {
             int repetitions = 15;
             String imagePath = "images/place_23k_23k.png";
             testVaryingCores(coreCounts, threshold, repetitions, imagePath).call();
+            // Run with -Damongus.metrics=true to see where the time of all the runs above went.
+            if (Metrics.ENABLED) System.out.print(Metrics.summary());
         } catch (Exception e) {
             e.printStackTrace();
         }
@@ -143,6 +154,7 @@ public class MeasureRuntimes {
                                 return result.size();
                             }
                         }, n_repetitions, "Single Thread", "Threshold: " + threshold);
+                        singleThreadFinder.close();
 
                         // Measure TP
                         ParallelFinderSubtotals multiThreadFinder = new ParallelFinderSubtotals(numCores, threshold, Integer.MAX_VALUE);
@@ -153,6 +165,7 @@ public class MeasureRuntimes {
                                 return result.size();
                             }
                         }, n_repetitions, "Multi Thread", "Threshold: " + threshold);
+                        multiThreadFinder.close();
 
                         // Calculate metrics
                         long overhead = T1 / Tseq;
@@ -197,6 +210,7 @@ public class MeasureRuntimes {
                             return result.size();
                         }
                     }, repetitions, "Global Single Thread", "Threshold: " + threshold);
+                    globalSingleThread.close();
 
                     ParallelFinderSubtotals localSingleThread = new ParallelFinderSubtotals(1, threshold, Integer.MAX_VALUE);
                     long T1Local = benchmark(new Callable<Integer>() {
@@ -206,6 +220,7 @@ public class MeasureRuntimes {
                             return result.size();
                         }
                     }, repetitions, "Local Single Thread", "Threshold: " + threshold);
+                    localSingleThread.close();
 
                     // Loop through core counts and measure TP
                     for (int cores : coreCounts) {
@@ -220,6 +235,7 @@ public class MeasureRuntimes {
                                 return result.size();
                             }
                         }, repetitions, "Global Multi Thread", "Cores: " + cores);
+                        globalMultiThread.close();
 
                         // Measure TP for Local HashMap
                         ParallelFinderSubtotals localMultiThread = new ParallelFinderSubtotals(cores, threshold, Integer.MAX_VALUE);
@@ -230,6 +246,7 @@ public class MeasureRuntimes {
                                 return result.size();
                             }
                         }, repetitions, "Local Multi Thread", "Cores: " + cores);
+                        localMultiThread.close();
 
                         // Calculate metrics for Global HashMap
                         long overheadGlobal = T1Global / Tseq;
@@ -256,6 +273,72 @@ public class MeasureRuntimes {
         };
     }
 
+    /**
+     * Compares traversal orders on one thread: the old column-wise loop (for x, for y), plain row-major, and row-major
+     * inside tiles sized from the caches (the tiles of TileScanner.DEFAULT). Every arm calls Amongus.detect on every
+     * anchor, so only the order differs; TileScanner's run-length prefilter is measured by the finders instead.
+     * Uses the wide 20k x 2k image, where a column of anchors touches the most cache lines.
+     */
+    static Callable<Object> traversalTest() {
+        return traversalTest(5, "images/place_20k_2k.png");
+    }
+
+    static Callable<Object> traversalTest(int repetitions, String imagePath) {
+        return new Callable<Object>() {
+            @Override
+            public Object call() {
+                System.out.println("Executing traversal test...");
+                Image img = new Image(imagePath);
+                int tileWidth = TileScanner.DEFAULT.tileWidth(), tileHeight = TileScanner.DEFAULT.tileHeight();
+                String tile = "Tile: " + tileWidth + "x" + tileHeight;
+
+                try {
+                    long Tcolumns = benchmark(() -> {
+                        ColourHistogram counts = new ColourHistogram();
+                        for (int x = 0; x < img.width; x++) {
+                            for (int y = 0; y < img.height; y++) {
+                                if (Amongus.detect(x, y, img)) counts.increment(Amongus.bodyColor(x, y, img));
+                            }
+                        }
+                        return counts.size();
+                    }, repetitions, "Traversal Column-wise", tile);
+                    long Trows = benchmark(() -> {
+                        ColourHistogram counts = new ColourHistogram();
+                        for (int y = 0; y < img.height; y++) {
+                            for (int x = 0; x < img.width; x++) {
+                                if (Amongus.detect(x, y, img)) counts.increment(Amongus.bodyColor(x, y, img));
+                            }
+                        }
+                        return counts.size();
+                    }, repetitions, "Traversal Row-major", tile);
+                    long Ttiles = benchmark(() -> {
+                        ColourHistogram counts = new ColourHistogram();
+                        for (int ty = 0, yEnd; ty < img.height; ty = yEnd) {
+                            yEnd = (int) Math.min((long) ty + tileHeight, img.height);
+                            for (int tx = 0, xEnd; tx < img.width; tx = xEnd) {
+                                xEnd = (int) Math.min((long) tx + tileWidth, img.width);
+                                for (int y = ty; y < yEnd; y++) {
+                                    for (int x = tx; x < xEnd; x++) {
+                                        if (Amongus.detect(x, y, img)) counts.increment(Amongus.bodyColor(x, y, img));
+                                    }
+                                }
+                            }
+                        }
+                        return counts.size();
+                    }, repetitions, "Traversal Tiled", tile);
+
+                    System.out.printf("%s: column-wise %d ms, row-major %d ms (%.2fx), tiled %d ms (%.2fx)%n", tile,
+                            Tcolumns / 1000000, Trows / 1000000, (double) Tcolumns / Trows,
+                            Ttiles / 1000000, (double) Tcolumns / Ttiles);
+                } catch (Exception e) {
+                    e.printStackTrace();
+                }
+
+                return null;
+            }
+        };
+    }
+
     /**
      * Tests the performance of the implementation using local HashMaps for various thresholds.
      *
@@ -266,11 +349,12 @@ public class MeasureRuntimes {
         String imagePath = "images/place_23k_23k.png";
         Image img = new Image(imagePath);
         for (int threshold : thresholds) {
-            ParallelFinderSubtotals finder = new ParallelFinderSubtotals(numCores, threshold, threshold);
-            benchmark(() -> {
-                AbstractMap<Integer, Integer> result = finder.countAmongiByColour(img);
-                return result.size();
-            }, repetitions, "Local HashMap", "Threshold: " + threshold);
+            try (ParallelFinderSubtotals finder = new ParallelFinderSubtotals(numCores, threshold, threshold)) {
+                benchmark(() -> {
+                    AbstractMap<Integer, Integer> result = finder.countAmongiByColour(img);
+                    return result.size();
+                }, repetitions, "Local HashMap", "Threshold: " + threshold);
+            }
         }
     }
 
@@ -284,44 +368,52 @@ public class MeasureRuntimes {
         String imagePath = "images/place_23k_23k.png";
         Image img = new Image(imagePath);
         for (int threshold : thresholds) {
-            ParallelFinderGlobalHashMap finder = new ParallelFinderGlobalHashMap(numCores, threshold);
-            benchmark(() -> {
-                AbstractMap<Integer, Integer> result = finder.countAmongiByColour(img);
-                return result.size();
-            }, repetitions, "Global HashMap", threshold + "");
+            try (ParallelFinderGlobalHashMap finder = new ParallelFinderGlobalHashMap(numCores, threshold)) {
+                benchmark(() -> {
+                    AbstractMap<Integer, Integer> result = finder.countAmongiByColour(img);
+                    return result.size();
+                }, repetitions, "Global HashMap", threshold + "");
+            }
         }
     }
 
     /**
-     * Defines the sequential strategy.
+     * Defines the sequential strategy: benchmarks SequentialFinder with Harness (results in sequential.json).
      */
     static Callable<Object> sequential() {
         return () -> {
             System.out.println("Executing sequential strategy...");
-            // Add your sequential implementation logic here
-            return null;
+            return Harness.run(new String[]{"-bm", "finder\\.Sequential", "-o", "sequential.json"});
         };
     }
 
     /**
-     * Defines the parallel strategy using a global HashMap.
+     * Defines the parallel strategy using a global HashMap, on 1 and all cores (results in parallel_global.json).
      */
     static Callable<Object> parallelGlobal() {
         return () -> {
             System.out.println("Executing parallel strategy with global HashMap...");
-            // Add your parallel global HashMap implementation logic here
-            return null;
+            return Harness.run(new String[]{"-bm", "finder\\.(Sequential|ParallelGlobal)", "-o", "parallel_global.json"});
         };
     }
 
     /**
-     * Defines the parallel strategy using local HashMaps.
+     * Defines the parallel strategy using local HashMaps, per task and pooled per thread, on 1 and all cores (results in parallel_local.json).
      */
     static Callable<Object> parallelLocal() {
         return () -> {
             System.out.println("Executing parallel strategy with local HashMaps...");
-            // Add your parallel local HashMap implementation logic here
-            return null;
+            return Harness.run(new String[]{"-bm", "finder\\.(Sequential|ParallelSubtotals|ParallelPooled)", "-o", "parallel_local.json"});
+        };
+    }
+
+    /**
+     * Defines the thread-per-tile strategy, against Fork/Join and the sequential finder (results in tile_tasks.json).
+     */
+    static Callable<Object> tileTasks() {
+        return () -> {
+            System.out.println("Executing thread-per-tile strategy...");
+            return Harness.run(new String[]{"-bm", "finder\\.(Sequential|ParallelAdaptive|TileTasks)", "-o", "tile_tasks.json"});
         };
     }
 }
\ No newline at end of file
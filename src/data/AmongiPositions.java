@@ -0,0 +1,181 @@
+package data;
+
+import java.util.AbstractMap;
+import java.util.Arrays;
+
+/**
+ * Detected amongi with their anchor (top-left pixel, as in Amongus.detect), kind (see Amongus.classify) and colours,
+ * stored in parallel primitive arrays.
+ *
+ * After buildIndex, the detections are sorted into a uniform grid of cells, so that forEachIn only looks at the cells
+ * that overlap the queried range.
+ */
+public class AmongiPositions {
+    /** Callback for forEachIn; i is the index of the detection, see x(i), y(i), ... */
+    public interface Visitor {
+        void accept(int i);
+    }
+
+    private int[] xs, ys, bodies, visors;
+    private byte[] kinds;
+    private int size = 0;
+
+    // Grid index, built by buildIndex: detections of cell c are at cellStart[c] .. cellStart[c + 1] - 1.
+    private int cellShift = -1; // log2 of the cell size, -1 if there is no index
+    private int cellsX, cellsY;
+    private int[] cellStart;
+
+    public AmongiPositions() {
+        this(16);
+    }
+
+    public AmongiPositions(int capacity) {
+        capacity = Math.max(1, capacity);
+        xs = new int[capacity];
+        ys = new int[capacity];
+        bodies = new int[capacity];
+        visors = new int[capacity];
+        kinds = new byte[capacity];
+    }
+
+    /** Adds a detection; invalidates the index. */
+    public void add(int x, int y, int kind, int body, int visor) {
+        if (size == xs.length) grow(size * 2);
+        xs[size] = x;
+        ys[size] = y;
+        kinds[size] = (byte) kind;
+        bodies[size] = body;
+        visors[size] = visor;
+        size++;
+        cellShift = -1;
+    }
+
+    /** Appends all detections of other; invalidates the index. */
+    public void addAll(AmongiPositions other) {
+        if (size + other.size > xs.length) grow(Math.max(size + other.size, xs.length * 2));
+        System.arraycopy(other.xs, 0, xs, size, other.size);
+        System.arraycopy(other.ys, 0, ys, size, other.size);
+        System.arraycopy(other.kinds, 0, kinds, size, other.size);
+        System.arraycopy(other.bodies, 0, bodies, size, other.size);
+        System.arraycopy(other.visors, 0, visors, size, other.size);
+        size += other.size;
+        cellShift = -1;
+    }
+
+    private void grow(int capacity) {
+        xs = Arrays.copyOf(xs, capacity);
+        ys = Arrays.copyOf(ys, capacity);
+        kinds = Arrays.copyOf(kinds, capacity);
+        bodies = Arrays.copyOf(bodies, capacity);
+        visors = Arrays.copyOf(visors, capacity);
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public int x(int i) {
+        return xs[i];
+    }
+
+    public int y(int i) {
+        return ys[i];
+    }
+
+    /** Amongus.RIGHT or Amongus.LEFT, combined with Amongus.NORMAL or Amongus.SMALL. */
+    public int kind(int i) {
+        return kinds[i];
+    }
+
+    public int bodyColour(int i) {
+        return bodies[i];
+    }
+
+    public int visorColour(int i) {
+        return visors[i];
+    }
+
+    /** Returns the number of detections per body colour, like AmongiFinder.countAmongiByColour. */
+    public AbstractMap<Integer, Integer> countByColour() {
+        ColourHistogram counts = new ColourHistogram();
+        for (int i = 0; i < size; i++) {
+            counts.increment(bodies[i]);
+        }
+        return counts.asMap();
+    }
+
+    /**
+     * Sorts the detections into a grid of square cells of 2^cellShift pixels, covering a width x height image.
+     * Reorders the detections, so indices from before the call are no longer valid. Takes O(size + cells).
+     */
+    public void buildIndex(int width, int height, int cellShift) {
+        int cellSize = 1 << cellShift;
+        cellsX = Math.max(1, (width + cellSize - 1) >> cellShift);
+        cellsY = Math.max(1, (height + cellSize - 1) >> cellShift);
+        int[] start = new int[Math.multiplyExact(cellsX, cellsY) + 1];
+        int[] cellOf = new int[size];
+        for (int i = 0; i < size; i++) {
+            int cx = Math.min(cellsX - 1, xs[i] >> cellShift), cy = Math.min(cellsY - 1, ys[i] >> cellShift);
+            cellOf[i] = cy * cellsX + cx;
+            start[cellOf[i] + 1]++;
+        }
+        for (int c = 0; c < start.length - 1; c++) {
+            start[c + 1] += start[c];
+        }
+
+        // Counting sort by cell; a stable order keeps the scan order within each cell.
+        int[] next = Arrays.copyOf(start, start.length - 1);
+        int[] order = new int[size];
+        for (int i = 0; i < size; i++) {
+            order[next[cellOf[i]]++] = i;
+        }
+        xs = permute(xs, order);
+        ys = permute(ys, order);
+        bodies = permute(bodies, order);
+        visors = permute(visors, order);
+        byte[] sortedKinds = new byte[xs.length];
+        for (int i = 0; i < size; i++) {
+            sortedKinds[i] = kinds[order[i]];
+        }
+        kinds = sortedKinds;
+
+        this.cellStart = start;
+        this.cellShift = cellShift;
+    }
+
+    private int[] permute(int[] values, int[] order) {
+        int[] sorted = new int[values.length];
+        for (int i = 0; i < size; i++) {
+            sorted[i] = values[order[i]];
+        }
+        return sorted;
+    }
+
+    /** Calls visitor for every detection with its anchor in [x1, x2) x [y1, y2). Uses the grid index if it is built. */
+    public void forEachIn(int x1, int y1, int x2, int y2, Visitor visitor) {
+        if (cellShift < 0) {
+            for (int i = 0; i < size; i++) {
+                if (xs[i] >= x1 && xs[i] < x2 && ys[i] >= y1 && ys[i] < y2) visitor.accept(i);
+            }
+            return;
+        }
+        if (x1 >= x2 || y1 >= y2) return;
+        int cx1 = Math.max(0, x1 >> cellShift), cx2 = Math.min(cellsX - 1, (x2 - 1) >> cellShift);
+        int cy1 = Math.max(0, y1 >> cellShift), cy2 = Math.min(cellsY - 1, (y2 - 1) >> cellShift);
+        for (int cy = cy1; cy <= cy2; cy++) {
+            for (int cx = cx1; cx <= cx2; cx++) {
+                int c = cy * cellsX + cx;
+                for (int i = cellStart[c]; i < cellStart[c + 1]; i++) {
+                    if (xs[i] >= x1 && xs[i] < x2 && ys[i] >= y1 && ys[i] < y2) visitor.accept(i);
+                }
+            }
+        }
+    }
+
+    /** Returns the number of detections with their anchor in [x1, x2) x [y1, y2). */
+    public int countIn(int x1, int y1, int x2, int y2) {
+        int[] count = new int[1];
+        forEachIn(x1, y1, x2, y2, i -> count[0]++);
+        return count[0];
+    }
+}
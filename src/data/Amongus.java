@@ -1,6 +1,8 @@
 package data;
 
 public class Amongus {
+    /** Results of classify: NONE, or RIGHT/LEFT combined with NORMAL/SMALL, as in the pattern table below. */
+    public static final int NONE = -1, RIGHT = 0, LEFT = 1, NORMAL = 0, SMALL = 2;
 /*
      There are several patterns (P = point (x,y) if not top-left color, A = color 1, B = color 2):
 
@@ -11,6 +13,41 @@ public class Amongus {
         AAA            A A        AAA           A A
         A A                       A A
 */
+    /** The four patterns above as a PatternSet, including the "different colour around" rules of detect. The anchor
+     * (x, y) is at row 1, column 1 of each grid. PATTERN_KINDS gives the classify result of each pattern. */
+    public static final PatternSet PATTERNS = PatternSet.compile(
+            new PatternSet.Pattern("normal right", 1, 1,
+                    ".aaaa.",
+                    ".aAAAa",
+                    "aAABBb",
+                    "aAAAAa",
+                    ".aAAAa",
+                    ".aAaAa",
+                    "..a.a."),
+            new PatternSet.Pattern("small right", 1, 1,
+                    ".aaaa.",
+                    ".aAAAa",
+                    "aAABBb",
+                    "aAAAAa",
+                    ".aAaAa",
+                    "..a.a."),
+            new PatternSet.Pattern("normal left", 1, 1,
+                    ".aaaa.",
+                    "aAAAa.",
+                    "bBBAAa",
+                    "aAAAAa",
+                    "aAAAa.",
+                    "aAaAa.",
+                    ".a.a.."),
+            new PatternSet.Pattern("small left", 1, 1,
+                    ".aaaa.",
+                    "aAAAa.",
+                    "bBBAAa",
+                    "aAAAAa",
+                    "aAaAa.",
+                    ".a.a.."));
+    public static final int[] PATTERN_KINDS = {RIGHT | NORMAL, RIGHT | SMALL, LEFT | NORMAL, LEFT | SMALL};
+
     /** Detects whether the point (x, y) is the top-left pixel of an amongus in the image img.
      * Simple manual implementation. Requires pixels next to the amongus to be of a different colour. */
     public static boolean detect(int x, int y, Image img) {
@@ -19,6 +56,14 @@ public class Amongus {
         // Then, check the 3rd row (identical in all patterns).
         int a = bodyColor(x, y, img);
         if (!detectRow(x, y + 2, img, a, 4)) return false;
+        return detectCandidate(x, y, img);
+    }
+
+    /** Same as detect, for an anchor (x, y) whose 3rd row is already known to be a run of exactly 4 pixels,
+     * e.g. because a scan of row y + 2 found that run starting at x. */
+    public static boolean detectCandidate(int x, int y, Image img) {
+        if (Metrics.ENABLED) Metrics.Counter.CANDIDATES.increment();
+        int a = bodyColor(x, y, img);
         // Check that the colours above the first row differ.
         if (y > 0)
             for (int z = 0; z < 4; z++) {
@@ -28,6 +73,28 @@ public class Amongus {
         return detectRight(x, y, img, a) || detectLeft(x, y, img, a);
     }
 
+    /** Like detect, but returns the orientation and variant of the amongus at (x, y), or NONE if there is none.
+     * At most one pattern can match: the visor position decides the orientation, the 4th row the variant. */
+    public static int classify(int x, int y, Image img) {
+        if (x > img.width - 4 || y > img.height - 4) return NONE;
+        int a = bodyColor(x, y, img);
+        if (!detectRow(x, y + 2, img, a, 4)) return NONE;
+        if (y > 0)
+            for (int z = 0; z < 4; z++) {
+                if (img.matches(x + z, y - 1, a))
+                    return NONE;
+            }
+        int right = variantRight(x, y, img, a);
+        if (right != NONE) return RIGHT | right;
+        int left = variantLeft(x, y, img, a);
+        return left == NONE ? NONE : LEFT | left;
+    }
+
+    /** Returns the visor colour of an amongus at (x, y), given its classification. */
+    public static int visorColor(int x, int y, Image img, int kind) {
+        return (kind & LEFT) != 0 ? img.getColor(x, y + 1) : img.getColor(x + 2, y + 1);
+    }
+
     /** Returns the body colour of an amongus detected at position (x, y). */
     public static int bodyColor(int x, int y, Image img) {
         return img.getColor(x, y + 2);
@@ -36,21 +103,33 @@ public class Amongus {
     ///////////////////////////////////////////////////////////////////////////////////////////////
 
     private static boolean detectRight(int x, int y, Image img, int a) {
+        return variantRight(x, y, img, a) != NONE;
+    }
+
+    private static boolean detectLeft(int x, int y, Image img, int a) {
+        return variantLeft(x, y, img, a) != NONE;
+    }
+
+    private static int variantRight(int x, int y, Image img, int a) {
         int b = img.getColor(x + 2, y + 1);
-        return detectRow(x + 1, y, img, a, 3) &&
+        if (!(detectRow(x + 1, y, img, a, 3) &&
                 detectRow(x, y + 1, img, a, 2) &&
-                detectRow(x + 2, y + 1, img, b, 2) &&
-                (detectRow(x + 1, y + 3, img, a, 3) &&
-                        detectLegs(x + 1, y + 4, img, a) || detectLegs(x + 1, y + 3, img, a));
+                detectRow(x + 2, y + 1, img, b, 2))) return NONE;
+        return variant(x + 1, y, img, a);
     }
 
-    private static boolean detectLeft(int x, int y, Image img, int a) {
+    private static int variantLeft(int x, int y, Image img, int a) {
         int b = img.getColor(x, y + 1);
-        return detectRow(x, y, img, a, 3) &&
+        if (!(detectRow(x, y, img, a, 3) &&
                 detectRow(x, y + 1, img, b, 2) &&
-                detectRow(x + 2, y + 1, img, a, 2) &&
-                (detectRow(x, y + 3, img, a, 3) &&
-                        detectLegs(x, y + 4, img, a) || detectLegs(x, y + 3, img, a));
+                detectRow(x + 2, y + 1, img, a, 2))) return NONE;
+        return variant(x, y, img, a);
+    }
+
+    // Returns NORMAL or SMALL depending on the rows below the body, whose legs start at column x, or NONE.
+    private static int variant(int x, int y, Image img, int a) {
+        if (detectRow(x, y + 3, img, a, 3) && detectLegs(x, y + 4, img, a)) return NORMAL;
+        return detectLegs(x, y + 3, img, a) ? SMALL : NONE;
     }
 
     // Detects whether there are n pixels of colour a starting from (x,y) in image img and surrounded by a different colour.
@@ -0,0 +1,201 @@
+package data;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+/**
+ * Counts per colour, in an open-addressing table of primitive ints.
+ * Canvases only use a small palette, so the table stays tiny, and counting a colour never allocates.
+ */
+public class ColourHistogram {
+    /** Callback for forEach. */
+    public interface Visitor {
+        void accept(int colour, int count);
+    }
+
+    private int[] colours;
+    private int[] counts; // A count of 0 marks an empty slot
+    private int size = 0;
+    private int shift;    // 32 - log2(capacity), used to turn a hash into a slot
+
+    public ColourHistogram() {
+        this(16);
+    }
+
+    public ColourHistogram(int expectedColours) {
+        int capacity = Integer.highestOneBit(Math.max(4, expectedColours) * 2 - 1) << 1;
+        colours = new int[capacity];
+        counts = new int[capacity];
+        shift = 32 - Integer.numberOfTrailingZeros(capacity);
+    }
+
+    private int slot(int colour) {
+        return (colour * 0x9E3779B9) >>> shift; // Fibonacci hashing spreads the similar ARGB values
+    }
+
+    /** Adds one to the count of a colour. */
+    public void increment(int colour) {
+        add(colour, 1);
+    }
+
+    /** Adds n > 0 to the count of a colour. */
+    public void add(int colour, int n) {
+        int mask = colours.length - 1;
+        for (int i = slot(colour); ; i = (i + 1) & mask) {
+            if (counts[i] == 0) {
+                colours[i] = colour;
+                counts[i] = n;
+                if (++size * 2 > colours.length) grow();
+                return;
+            }
+            if (colours[i] == colour) {
+                counts[i] += n;
+                return;
+            }
+        }
+    }
+
+    /** Subtracts 0 < n <= get(colour) from the count of a colour; a colour whose count drops to 0 is removed. */
+    public void subtract(int colour, int n) {
+        int mask = colours.length - 1;
+        int i = slot(colour);
+        while (colours[i] != colour || counts[i] == 0) {
+            if (counts[i] == 0) throw new IllegalStateException("Colour " + Integer.toHexString(colour) + " has not been counted");
+            i = (i + 1) & mask;
+        }
+        if (counts[i] < n) throw new IllegalStateException("Count of colour " + Integer.toHexString(colour) + " would drop below 0");
+        counts[i] -= n;
+        if (counts[i] > 0) return;
+        size--;
+        // Backward-shift deletion: move later entries of the probe run into the hole, so lookups never stop early.
+        for (int j = (i + 1) & mask; counts[j] != 0; j = (j + 1) & mask) {
+            int home = slot(colours[j]);
+            boolean reachable = i <= j ? i < home && home <= j : i < home || home <= j;
+            if (reachable) continue; // Entry j is still found from its home slot
+            colours[i] = colours[j];
+            counts[i] = counts[j];
+            counts[j] = 0;
+            i = j;
+        }
+    }
+
+    /** Returns the count of a colour, 0 if it has not been counted. */
+    public int get(int colour) {
+        int mask = colours.length - 1;
+        for (int i = slot(colour); counts[i] != 0; i = (i + 1) & mask) {
+            if (colours[i] == colour) return counts[i];
+        }
+        return 0;
+    }
+
+    /** Returns the number of distinct colours. */
+    public int size() {
+        return size;
+    }
+
+    /** Adds all counts of other to this histogram. */
+    public void addAll(ColourHistogram other) {
+        int[] c = other.colours, n = other.counts;
+        for (int i = 0; i < c.length; i++) {
+            if (n[i] != 0) add(c[i], n[i]);
+        }
+    }
+
+    /** Merges two histograms by adding the smaller one to the larger one, and returns the larger one. */
+    public static ColourHistogram merge(ColourHistogram h1, ColourHistogram h2) {
+        if (Metrics.ENABLED) Metrics.Counter.MERGES.increment();
+        if (h1.size < h2.size) {
+            h2.addAll(h1);
+            return h2;
+        }
+        h1.addAll(h2);
+        return h1;
+    }
+
+    /** Removes all counts, keeping the allocated table. */
+    public void clear() {
+        Arrays.fill(counts, 0);
+        size = 0;
+    }
+
+    public void forEach(Visitor visitor) {
+        for (int i = 0; i < colours.length; i++) {
+            if (counts[i] != 0) visitor.accept(colours[i], counts[i]);
+        }
+    }
+
+    private void grow() {
+        int[] oldColours = colours, oldCounts = counts;
+        colours = new int[oldColours.length * 2];
+        counts = new int[oldColours.length * 2];
+        shift--;
+        size = 0;
+        for (int i = 0; i < oldColours.length; i++) {
+            if (oldCounts[i] != 0) add(oldColours[i], oldCounts[i]);
+        }
+    }
+
+    /** Returns a read-only Map view, to satisfy the return type of AmongiFinder. */
+    public AbstractMap<Integer, Integer> asMap() {
+        return new MapView();
+    }
+
+    private class MapView extends AbstractMap<Integer, Integer> {
+        @Override
+        public int size() {
+            return size;
+        }
+
+        @Override
+        public boolean containsKey(Object key) {
+            return key instanceof Integer && ColourHistogram.this.get((Integer) key) != 0;
+        }
+
+        @Override
+        public Integer get(Object key) {
+            if (!(key instanceof Integer)) return null;
+            int count = ColourHistogram.this.get((Integer) key);
+            return count == 0 ? null : count;
+        }
+
+        @Override
+        public Set<Map.Entry<Integer, Integer>> entrySet() {
+            return new AbstractSet<Map.Entry<Integer, Integer>>() {
+                @Override
+                public int size() {
+                    return size;
+                }
+
+                @Override
+                public Iterator<Map.Entry<Integer, Integer>> iterator() {
+                    return new Iterator<Map.Entry<Integer, Integer>>() {
+                        private int next = advance(0);
+
+                        private int advance(int i) {
+                            while (i < counts.length && counts[i] == 0) i++;
+                            return i;
+                        }
+
+                        @Override
+                        public boolean hasNext() {
+                            return next < counts.length;
+                        }
+
+                        @Override
+                        public Map.Entry<Integer, Integer> next() {
+                            if (!hasNext()) throw new NoSuchElementException();
+                            Map.Entry<Integer, Integer> entry = new SimpleImmutableEntry<>(colours[next], counts[next]);
+                            next = advance(next + 1);
+                            return entry;
+                        }
+                    };
+                }
+            };
+        }
+    }
+}
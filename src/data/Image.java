@@ -4,10 +4,36 @@ import javax.imageio.ImageIO;
 import java.awt.image.BufferedImage;
 import java.io.File;
 import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
 
-/** Simple wrapper around a BufferedImage. */
+/**
+ * Image decoded once into a packed store of ARGB pixels. The store is either an int[] on the heap or,
+ * when the image was loaded from its raw sidecar file (see RawImageCache), read-only memory-mapped IntBuffers.
+ */
 public class Image {
-    private BufferedImage img;
+    /** Order in which the pixels are stored in the packed array. */
+    public enum Layout {
+        ROW_MAJOR, // One row after the other, width pixels per row
+        TILED      // Square tiles of TILE_SIZE x TILE_SIZE pixels, row-major within and between tiles
+    }
+
+    public static final int TILE_SHIFT = 6;
+    public static final int TILE_SIZE = 1 << TILE_SHIFT;
+    private static final int TILE_MASK = TILE_SIZE - 1;
+
+    // Memory-mapped images are split into chunks, since a single mapping cannot exceed 2 GB.
+    static final int CHUNK_SHIFT = 28;
+    static final int CHUNK_MASK = (1 << CHUNK_SHIFT) - 1;
+
+    private final int[] pixels;    // null if the image is memory-mapped
+    private final IntBuffer[] chunks; // null if the image is on the heap
+    private final int chunkShift; // log2 of the pixels per chunk: CHUNK_SHIFT, or one tile for ofTiles images
+    private final int chunkMask;
+    private final Layout layout;
+    private final int tilesX; // Number of tiles per row of tiles (only used by the TILED layout)
     public int width;
     public int height;
 
@@ -23,23 +49,239 @@ public class Image {
      */
 
     public Image(String path) {
+        this(path, Layout.ROW_MAJOR);
+    }
+
+    /** Loads an image, mapping its raw sidecar file if there is an up-to-date one and decoding the PNG otherwise. */
+    public Image(String path, Layout layout) {
+        this(load(path, layout));
+    }
+
+    private Image(Image other) {
+        this.layout = other.layout;
+        this.width = other.width;
+        this.height = other.height;
+        this.tilesX = other.tilesX;
+        this.pixels = other.pixels;
+        this.chunks = other.chunks;
+        this.chunkShift = other.chunkShift;
+        this.chunkMask = other.chunkMask;
+    }
+
+    private static Image load(String path, Layout layout) {
+        if (RawImageCache.ENABLED) {
+            Image mapped = RawImageCache.map(path, layout);
+            if (mapped != null) return mapped;
+        }
+        Metrics.PhaseEvent event = Metrics.ENABLED ? Metrics.begin(Metrics.Phase.DECODE, path) : null;
+        Image img = decode(path, layout);
+        if (Metrics.ENABLED) Metrics.end(Metrics.Phase.DECODE, event);
+        if (RawImageCache.ENABLED) RawImageCache.write(path, img);
+        return img;
+    }
+
+    /**
+     * Decodes a PNG with ParallelPngDecoder on all cores, and files it does not support with ImageIO. Throws
+     * UncheckedIOException if the file cannot be read, is malformed, or the decoding thread is interrupted.
+     */
+    private static Image decode(String path, Layout layout) {
+        Image img;
+        try {
+            img = ParallelPngDecoder.decode(path, layout, Runtime.getRuntime().availableProcessors());
+        } catch (IOException e) {
+            if (e.getCause() instanceof InterruptedException) Thread.currentThread().interrupt();
+            throw new UncheckedIOException("Could not decode image " + path, e);
+        }
+        return img != null ? img : decodeImageIO(path, layout); // Not a PNG, or one that only ImageIO reads
+    }
+
+    /** Decodes an image with ImageIO, in one thread. Throws UncheckedIOException if it cannot be read. */
+    public static Image decodeImageIO(String path, Layout layout) {
+        BufferedImage img;
         try {
             img = ImageIO.read(new File(path));
-            width = img.getWidth();
-            height = img.getHeight();
         } catch (IOException e) {
-            System.out.println("Could not read image " + path);
-            System.exit(1);
+            throw new UncheckedIOException("Could not read image " + path, e);
         }
+        if (img == null) throw new UncheckedIOException(new IOException("Not an image in a known format: " + path));
+        int width = img.getWidth();
+        int height = img.getHeight();
+        Image result = new Image(width, height, new int[size(width, height, layout)], layout);
+        // Decode a row at a time, getRGB converts the colour model for the whole row in one go.
+        int[] row = new int[width];
+        for (int y = 0; y < height; y++) {
+            img.getRGB(0, y, width, 1, row, 0, width);
+            result.setRow(y, row);
+        }
+        return result;
+    }
+
+    /** Wraps an array of ARGB pixels that is already in the given layout. The array is not copied. */
+    public Image(int width, int height, int[] pixels, Layout layout) {
+        if (pixels.length < size(width, height, layout))
+            throw new IllegalArgumentException("Pixel array too small for a " + width + "x" + height + " image");
+        this.layout = layout;
+        this.width = width;
+        this.height = height;
+        this.tilesX = (width + TILE_MASK) >> TILE_SHIFT;
+        this.pixels = pixels;
+        this.chunks = null;
+        this.chunkShift = CHUNK_SHIFT;
+        this.chunkMask = CHUNK_MASK;
+    }
+
+    /** Wraps read-only chunks of 2^CHUNK_SHIFT pixels each (the last one may be shorter), see RawImageCache. */
+    Image(int width, int height, IntBuffer[] chunks, Layout layout) {
+        this(width, height, chunks, layout, CHUNK_SHIFT);
+    }
+
+    private Image(int width, int height, IntBuffer[] chunks, Layout layout, int chunkShift) {
+        this.layout = layout;
+        this.width = width;
+        this.height = height;
+        this.tilesX = (width + TILE_MASK) >> TILE_SHIFT;
+        this.pixels = null;
+        this.chunks = chunks;
+        this.chunkShift = chunkShift;
+        this.chunkMask = (1 << chunkShift) - 1;
+    }
+
+    /**
+     * Wraps one buffer per tile, in the order of the TILED layout, e.g. direct buffers from allocateTile that were
+     * allocated (and so first touched) by the threads that will scan them. The buffers are not copied.
+     */
+    public static Image ofTiles(int width, int height, IntBuffer[] tiles) {
+        if (tiles.length != size(width, height, Layout.TILED) >> (2 * TILE_SHIFT))
+            throw new IllegalArgumentException("Expected one buffer per tile of a " + width + "x" + height + " image");
+        return new Image(width, height, tiles, Layout.TILED, 2 * TILE_SHIFT);
+    }
+
+    /** Allocates the off-heap buffer of one tile, see ofTiles. The memory is zeroed by the calling thread. */
+    public static IntBuffer allocateTile() {
+        return ByteBuffer.allocateDirect(TILE_SIZE * TILE_SIZE * 4).order(ByteOrder.nativeOrder()).asIntBuffer();
+    }
+
+    /** Returns the number of tiles per row and column of tiles of the TILED layout, as {tilesX, tilesY}. */
+    public static int[] tileCounts(int width, int height) {
+        return new int[]{(width + TILE_MASK) >> TILE_SHIFT, (height + TILE_MASK) >> TILE_SHIFT};
+    }
+
+    /** For subclasses that keep their own pixel store and override get(index) and copy(...). */
+    protected Image(int width, int height, Layout layout) {
+        this.layout = layout;
+        this.width = width;
+        this.height = height;
+        this.tilesX = (width + TILE_MASK) >> TILE_SHIFT;
+        this.pixels = null;
+        this.chunks = null;
+        this.chunkShift = CHUNK_SHIFT;
+        this.chunkMask = CHUNK_MASK;
+    }
+
+    /** Wraps a row-major array of ARGB pixels. The array is not copied. */
+    public Image(int width, int height, int[] pixels) {
+        this(width, height, pixels, Layout.ROW_MAJOR);
+    }
+
+    /** Returns the number of array elements needed to store an image in the given layout. */
+    static int size(int width, int height, Layout layout) {
+        if (layout == Layout.ROW_MAJOR) return Math.multiplyExact(width, height);
+        int tilesX = (width + TILE_MASK) >> TILE_SHIFT;
+        int tilesY = (height + TILE_MASK) >> TILE_SHIFT;
+        return Math.multiplyExact(Math.multiplyExact(tilesX, tilesY), TILE_SIZE * TILE_SIZE);
+    }
+
+    public Layout layout() {
+        return layout;
+    }
+
+    /** Returns the packed pixel array if this is an on-heap, row-major ARGB image, and null otherwise. */
+    public int[] rowMajorPixels() {
+        return layout == Layout.ROW_MAJOR ? pixels : null;
+    }
+
+    /** Returns true if the pixels are off-heap (memory-mapped from a raw sidecar file, or see ofTiles). */
+    public boolean isMapped() {
+        return chunks != null;
+    }
+
+    /** Returns true if setColor can change the pixels, i.e. they are an on-heap ARGB array. */
+    public boolean isWritable() {
+        return pixels != null;
+    }
+
+    /** Changes the colour of a pixel. Mapped and palette-indexed images are read-only. */
+    public void setColor(int x, int y, int color) {
+        if (pixels == null) throw new UnsupportedOperationException("Image is read-only");
+        pixels[index(x, y)] = color;
+    }
+
+    /** Returns the position of pixel (x, y) in the packed pixel array. */
+    public int index(int x, int y) {
+        if (layout == Layout.ROW_MAJOR) return y * width + x;
+        int tile = (y >> TILE_SHIFT) * tilesX + (x >> TILE_SHIFT);
+        return (tile << (2 * TILE_SHIFT)) | ((y & TILE_MASK) << TILE_SHIFT) | (x & TILE_MASK);
+    }
+
+    /** Returns the colour stored at a position of the packed pixel array, see index(x, y). */
+    public int get(int index) {
+        int[] p = pixels;
+        if (p != null) return p[index];
+        return chunks[index >>> chunkShift].get(index & chunkMask);
     }
 
     /** Returns the colour of a pixel as an integer. */
     public int getColor(int x, int y) {
-        return img.getRGB(x, y);
+        return get(index(x, y));
     }
 
     /** Returns true if a given pixel has a specific color. */
     public boolean matches(int x, int y, int color) {
         return getColor(x, y) == color;
     }
+
+    /** Copies width pixels of row y into dst, starting at dst[offset]. */
+    public void getRow(int y, int[] dst, int offset) {
+        getRow(y, 0, width, dst, offset);
+    }
+
+    /** Copies the pixels [x, x + length) of row y into dst, starting at dst[offset]. */
+    public void getRow(int y, int x, int length, int[] dst, int offset) {
+        if (layout == Layout.ROW_MAJOR) {
+            copy(y * width + x, dst, offset, length);
+        } else {
+            // One copy per tile the row segment crosses.
+            for (int end = x + length, n; x < end; x += n, offset += n) {
+                n = Math.min(TILE_SIZE - (x & TILE_MASK), end - x);
+                copy(index(x, y), dst, offset, n);
+            }
+        }
+    }
+
+    /** Copies length consecutive elements of the packed store, starting at index, into dst. */
+    public void copy(int index, int[] dst, int offset, int length) {
+        if (pixels != null) {
+            System.arraycopy(pixels, index, dst, offset, length);
+            return;
+        }
+        while (length > 0) {
+            int inChunk = index & chunkMask;
+            int n = Math.min(length, chunkMask + 1 - inChunk);
+            chunks[index >>> chunkShift].get(inChunk, dst, offset, n);
+            index += n;
+            offset += n;
+            length -= n;
+        }
+    }
+
+    /** Stores row y of a heap image from width ARGB pixels; different rows may be set from different threads. */
+    void setRow(int y, int[] src) {
+        if (layout == Layout.ROW_MAJOR) {
+            System.arraycopy(src, 0, pixels, y * width, width);
+        } else {
+            for (int x = 0; x < width; x += TILE_SIZE) {
+                System.arraycopy(src, x, pixels, index(x, y), Math.min(TILE_SIZE, width - x));
+            }
+        }
+    }
 }
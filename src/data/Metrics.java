@@ -0,0 +1,173 @@
+package data;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Opt-in instrumentation of the hot paths, enabled with -Damongus.metrics=true.
+ *
+ * Every call site is guarded by if (Metrics.ENABLED). ENABLED is a static final constant, so when it is false the JIT
+ * removes the guarded code entirely and the finders run exactly as without instrumentation.
+ *
+ * When enabled, counters are kept in LongAdders (cheap under contention) and summary() reports them. Phases and FJ
+ * leaves are also committed as JFR events (category "Amongus"), which show up in a recording started with e.g.
+ * -XX:StartFlightRecording=filename=run.jfr and can be inspected with JDK Mission Control or `jfr print`.
+ */
+public final class Metrics {
+    public static final boolean ENABLED = Boolean.getBoolean("amongus.metrics");
+
+    /** Events counted by the finders. */
+    public enum Counter {
+        ANCHORS("anchors tested"),      // Anchors scanned by TileScanner
+        CANDIDATES("passed row 3"),     // Anchors given to Amongus.detectCandidate, i.e. not rejected early
+        DETECTIONS("detections"),       // Amongi found by TileScanner
+        MERGES("histogram merges"),     // ColourHistogram.merge calls
+        STEALS("FJ steals");            // Tasks stolen in the pools of ParallelFinderSubtotals
+
+        final String label;
+        private final LongAdder value = new LongAdder();
+
+        Counter(String label) {
+            this.label = label;
+        }
+
+        public void add(long n) {
+            value.add(n);
+        }
+
+        public void increment() {
+            value.increment();
+        }
+
+        public long get() {
+            return value.sum();
+        }
+    }
+
+    /** Timed phases of a run. */
+    public enum Phase {
+        DECODE("decode"), // Image decoding (not mapping a raw sidecar file)
+        COUNT("count"),   // countAmongiByColour of a finder, as a whole
+        LEAF("FJ leaf");  // Scan of one Fork/Join leaf, summed over all threads
+
+        final String label;
+        private final LongAdder calls = new LongAdder(), nanos = new LongAdder();
+
+        Phase(String label) {
+            this.label = label;
+        }
+
+        public long calls() {
+            return calls.sum();
+        }
+
+        public long nanos() {
+            return nanos.sum();
+        }
+    }
+
+    @Name("amongus.Phase")
+    @Label("Phase")
+    @Category("Amongus")
+    @Description("Decoding an image or counting its amongi")
+    public static class PhaseEvent extends Event {
+        @Label("Phase")
+        String phase;
+        @Label("Detail")
+        String detail;
+        transient long start;
+    }
+
+    @Name("amongus.Leaf")
+    @Label("Fork/Join leaf")
+    @Category("Amongus")
+    @Description("Sequential scan of one region by a Fork/Join leaf")
+    public static class LeafEvent extends Event {
+        @Label("x1")
+        int x1;
+        @Label("x2")
+        int x2;
+        @Label("y1")
+        int y1;
+        @Label("y2")
+        int y2;
+        @Label("Anchors")
+        long anchors;
+        transient long start;
+    }
+
+    private Metrics() {
+    }
+
+    /** Starts timing a phase; detail is e.g. the path or the finder. Pass the result to end. */
+    public static PhaseEvent begin(Phase phase, String detail) {
+        PhaseEvent event = new PhaseEvent();
+        event.phase = phase.label;
+        event.detail = detail;
+        event.start = System.nanoTime();
+        event.begin();
+        return event;
+    }
+
+    public static void end(Phase phase, PhaseEvent event) {
+        event.commit();
+        phase.calls.increment();
+        phase.nanos.add(System.nanoTime() - event.start);
+    }
+
+    /** Starts timing the scan of a leaf. Pass the result to endLeaf. */
+    public static LeafEvent beginLeaf() {
+        LeafEvent event = new LeafEvent();
+        event.start = System.nanoTime();
+        event.begin();
+        return event;
+    }
+
+    public static void endLeaf(LeafEvent event, int x1, int x2, int y1, int y2) {
+        event.x1 = x1;
+        event.x2 = x2;
+        event.y1 = y1;
+        event.y2 = y2;
+        event.anchors = (long) (x2 - x1) * (y2 - y1);
+        event.commit();
+        Phase.LEAF.calls.increment();
+        Phase.LEAF.nanos.add(System.nanoTime() - event.start);
+    }
+
+    /** Sets all counters and timers to zero, e.g. between benchmarks. */
+    public static void reset() {
+        for (Counter counter : Counter.values()) counter.value.reset();
+        for (Phase phase : Phase.values()) {
+            phase.calls.reset();
+            phase.nanos.reset();
+        }
+    }
+
+    /** Returns the counters and timers as a table, one line each. */
+    public static String summary() {
+        StringBuilder out = new StringBuilder("Metrics:\n");
+        for (Phase phase : Phase.values()) {
+            long calls = phase.calls();
+            out.append(String.format("  %-18s %,12d calls %,14.1f ms", phase.label, calls, phase.nanos() / 1e6));
+            if (calls > 0) out.append(String.format(" (%,.3f ms each)", phase.nanos() / 1e6 / calls));
+            out.append('\n');
+        }
+        for (Counter counter : Counter.values()) {
+            out.append(String.format("  %-18s %,18d", counter.label, counter.get()));
+            // Rejection rates of the two filter stages.
+            if (counter == Counter.CANDIDATES) out.append(percent(Counter.CANDIDATES, Counter.ANCHORS));
+            if (counter == Counter.DETECTIONS) out.append(percent(Counter.DETECTIONS, Counter.CANDIDATES));
+            out.append('\n');
+        }
+        return out.toString();
+    }
+
+    private static String percent(Counter part, Counter total) {
+        return total.get() == 0 ? "" : String.format(" (%.3f%% of %s)", 100.0 * part.get() / total.get(), total.label);
+    }
+}
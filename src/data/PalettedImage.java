@@ -0,0 +1,81 @@
+package data;
+
+import java.util.Arrays;
+
+/**
+ * Palette-quantized copy of an image: one byte per pixel plus a table of at most 256 ARGB colours.
+ *
+ * The colours of a PalettedImage are palette indices: getColor returns the index, and paletteColour turns it back
+ * into ARGB. Two pixels have the same index exactly when they have the same ARGB colour, so Amongus.detect finds the
+ * same amongi, and bodyColor can index a plain counter array.
+ */
+public class PalettedImage extends Image {
+    public static final int MAX_COLOURS = 256;
+
+    private final byte[] indices;
+    private final int[] palette;
+
+    private PalettedImage(int width, int height, Layout layout, byte[] indices, int[] palette) {
+        super(width, height, layout);
+        this.indices = indices;
+        this.palette = palette;
+    }
+
+    /** Quantizes an image, keeping its layout. Returns null if it has more than MAX_COLOURS colours. */
+    public static PalettedImage quantize(Image img) {
+        if (img instanceof PalettedImage) return (PalettedImage) img;
+
+        byte[] indices = new byte[size(img.width, img.height, img.layout())];
+        int[] palette = new int[MAX_COLOURS];
+        int paletteSize = 0;
+        // Maps a colour to its palette index + 1, since the histogram reserves 0 for absent colours.
+        ColourHistogram lookup = new ColourHistogram(MAX_COLOURS);
+        int[] row = new int[img.width];
+        int previous = 0, previousIndex = -1; // Neighbouring pixels mostly have the same colour
+        for (int y = 0; y < img.height; y++) {
+            img.getRow(y, row, 0);
+            for (int x = 0; x < img.width; x++) {
+                int colour = row[x];
+                int index;
+                if (colour == previous && previousIndex >= 0) {
+                    index = previousIndex;
+                } else {
+                    index = lookup.get(colour) - 1;
+                    if (index < 0) {
+                        if (paletteSize == MAX_COLOURS) return null;
+                        index = paletteSize++;
+                        palette[index] = colour;
+                        lookup.add(colour, index + 1);
+                    }
+                    previous = colour;
+                    previousIndex = index;
+                }
+                indices[img.index(x, y)] = (byte) index;
+            }
+        }
+        return new PalettedImage(img.width, img.height, img.layout(), indices, Arrays.copyOf(palette, paletteSize));
+    }
+
+    /** Returns the number of colours in the palette. */
+    public int paletteSize() {
+        return palette.length;
+    }
+
+    /** Returns the ARGB colour of a palette index. */
+    public int paletteColour(int index) {
+        return palette[index];
+    }
+
+    /** Returns the palette index stored at a position of the packed store. */
+    @Override
+    public int get(int index) {
+        return indices[index] & 0xFF;
+    }
+
+    @Override
+    public void copy(int index, int[] dst, int offset, int length) {
+        for (int i = 0; i < length; i++) {
+            dst[offset + i] = indices[index + i] & 0xFF;
+        }
+    }
+}
@@ -0,0 +1,173 @@
+package data;
+
+import java.io.IOException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Decodes a PNG (the formats of PngScanlineReader) straight into the packed store of an Image, in a pipeline of
+ * blocks of consecutive scanlines:
+ *
+ *   calling thread   inflates the IDAT data of a block (zlib is one stream, so this cannot be split)
+ *   unfilter thread  reverses the filters of the block (each row depends on the one above it)
+ *   p converters     turn slices of the block into ARGB pixels and store them, in parallel
+ *
+ * All three stages work on different blocks at the same time, so decoding takes about as long as inflating
+ * alone once there are enough converters. A fixed set of blocks is recycled, which bounds the extra memory to about
+ * (p + 3) * BLOCK_BYTES whatever the size of the image.
+ */
+public class ParallelPngDecoder {
+    static final int BLOCK_BYTES = 1 << 20; // Filtered bytes per block, at least one scanline
+
+    private static final Block END = new Block(new byte[0]); // Marks the end of the inflated blocks
+
+    /** Scanlines firstRow .. firstRow + rows - 1, stride bytes each. */
+    private static final class Block {
+        final byte[] data;
+        int firstRow, rows;
+        final AtomicInteger pending = new AtomicInteger(); // Converter slices not yet done
+
+        Block(byte[] data) {
+            this.data = data;
+        }
+    }
+
+    private final PngScanlineReader reader;
+    private final Image img;
+    private final int threads;
+    private final int stride;
+    private final int rowsPerBlock;
+    private final BlockingQueue<Block> free, inflated;
+    private final AtomicReference<Throwable> error = new AtomicReference<>();
+
+    private ParallelPngDecoder(PngScanlineReader reader, Image.Layout layout, int threads) {
+        this.reader = reader;
+        this.img = new Image(reader.width, reader.height, new int[Image.size(reader.width, reader.height, layout)], layout);
+        this.threads = threads;
+        this.stride = reader.stride();
+        this.rowsPerBlock = Math.max(1, BLOCK_BYTES / stride);
+        int blocks = threads + 3; // One being inflated, one being unfiltered, one queued per converter and one spare
+        this.free = new ArrayBlockingQueue<>(blocks);
+        this.inflated = new ArrayBlockingQueue<>(blocks + 1);
+        for (int i = 0; i < blocks; i++) free.add(new Block(new byte[rowsPerBlock * stride]));
+    }
+
+    /**
+     * Decodes a PNG with p converter threads into an image of the given layout.
+     * Returns null if PngScanlineReader does not support the format of the file; ImageIO can still read it.
+     */
+    public static Image decode(String path, Image.Layout layout, int p) throws IOException {
+        PngScanlineReader reader = PngScanlineReader.open(path);
+        if (reader == null) return null;
+        try (reader) {
+            return new ParallelPngDecoder(reader, layout, Math.max(1, p)).run();
+        }
+    }
+
+    private Image run() throws IOException {
+        int blocks = (reader.height + rowsPerBlock - 1) / rowsPerBlock;
+        CountDownLatch stored = new CountDownLatch(blocks);
+        ExecutorService converters = Executors.newFixedThreadPool(threads, r -> {
+            Thread thread = new Thread(r, "PngConverter");
+            thread.setDaemon(true);
+            return thread;
+        });
+        Thread unfilterer = new Thread(() -> unfilterAll(converters, stored), "PngUnfilter");
+        unfilterer.setDaemon(true);
+        unfilterer.start();
+        try {
+            for (int y = 0; y < reader.height && error.get() == null; y += rowsPerBlock) {
+                Block block = free.take();
+                block.firstRow = y;
+                block.rows = Math.min(rowsPerBlock, reader.height - y);
+                try {
+                    reader.readFiltered(block.data, 0, block.rows * stride);
+                } catch (IOException | RuntimeException e) {
+                    error.compareAndSet(null, e);
+                    break;
+                }
+                inflated.put(block);
+            }
+            inflated.put(END);
+            unfilterer.join();
+            if (error.get() == null) stored.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            error.compareAndSet(null, e);
+        } finally {
+            converters.shutdownNow();
+        }
+
+        Throwable failure = error.get();
+        if (failure == null) return img;
+        if (failure instanceof IOException) throw (IOException) failure;
+        if (failure instanceof RuntimeException) throw (RuntimeException) failure;
+        throw new IOException("Decoding was interrupted", failure);
+    }
+
+    // Unfilters the inflated blocks in order and hands each to the converters. After an error, blocks are only recycled.
+    private void unfilterAll(ExecutorService converters, CountDownLatch stored) {
+        int bpp = reader.bytesPerPixel();
+        byte[] above = new byte[stride]; // Last unfiltered row of the previous block; zeros above the first row
+        try {
+            while (true) {
+                Block block = inflated.take();
+                if (block == END) return;
+                if (error.get() != null) {
+                    free.put(block);
+                    continue;
+                }
+                try {
+                    byte[] data = block.data;
+                    PngScanlineReader.unfilter(data, 0, above, 0, stride, bpp);
+                    for (int r = 1; r < block.rows; r++) {
+                        PngScanlineReader.unfilter(data, r * stride, data, (r - 1) * stride, stride, bpp);
+                    }
+                    System.arraycopy(data, (block.rows - 1) * stride, above, 0, stride);
+                } catch (IOException | RuntimeException e) {
+                    error.compareAndSet(null, e);
+                    free.put(block);
+                    continue;
+                }
+                convert(block, converters, stored);
+            }
+        } catch (InterruptedException e) {
+            error.compareAndSet(null, e);
+        }
+    }
+
+    // Splits a block into one slice of rows per converter; the last slice to finish recycles the block.
+    private void convert(Block block, ExecutorService converters, CountDownLatch stored) {
+        int slices = Math.min(threads, block.rows);
+        block.pending.set(slices);
+        for (int i = 0; i < slices; i++) {
+            int r1 = block.rows * i / slices, r2 = block.rows * (i + 1) / slices;
+            converters.execute(() -> {
+                try {
+                    int[] row = img.rowMajorPixels() == null ? new int[img.width] : null;
+                    for (int r = r1; r < r2; r++) {
+                        int y = block.firstRow + r;
+                        if (row == null) {
+                            reader.toArgb(block.data, r * stride, img.rowMajorPixels(), y * img.width);
+                        } else {
+                            reader.toArgb(block.data, r * stride, row, 0);
+                            img.setRow(y, row);
+                        }
+                    }
+                } catch (RuntimeException e) {
+                    error.compareAndSet(null, e);
+                } finally {
+                    if (block.pending.decrementAndGet() == 0) {
+                        free.add(block);
+                        stored.countDown();
+                    }
+                }
+            });
+        }
+    }
+}
@@ -0,0 +1,277 @@
+package data;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * A set of sprite patterns, compiled so that one pass over the neighbourhood of an anchor checks all of them.
+ *
+ * A pattern is an ASCII grid, with the anchor at a given cell of the grid:
+ *   A  same colour as the body, i.e. as all other A cells
+ *   B  same colour as the visor, i.e. as all other B cells. The visor and body colours must differ
+ *   a  different from the body colour, or outside the image
+ *   b  different from the visor colour, or outside the image
+ *   .  anything
+ * A and B cells must lie inside the image.
+ *
+ * Compiling picks a few reference cells (an A and a B of every pattern, shared between patterns where possible) and
+ * collects the distinct cells used by any pattern. For each cell it builds a table from the "relation" of a pixel
+ * (inside the image or not, equal to which reference colours) to the set of patterns that fail on it. Matching walks
+ * the cells, most selective first, reading reference colours when first needed and clearing failed patterns from a
+ * bitmask of alive patterns until all have failed or the cells run out. Shared cells are read once for all patterns.
+ */
+public class PatternSet {
+    public static final int MAX_PATTERNS = 64;
+    public static final int MAX_REFERENCES = 8; // Distinct body/visor reference cells over all patterns
+
+    /** One sprite: rows of the grid above, and the position of the anchor in it. */
+    public static final class Pattern {
+        public final String name;
+        final int anchorX, anchorY;
+        final String[] rows;
+
+        public Pattern(String name, int anchorX, int anchorY, String... rows) {
+            this.name = name;
+            this.anchorX = anchorX;
+            this.anchorY = anchorY;
+            this.rows = rows.clone();
+            for (String row : rows) {
+                for (char c : row.toCharArray()) {
+                    if ("ABab.".indexOf(c) < 0) throw new IllegalArgumentException("Pattern " + name + ": unknown cell '" + c + "'");
+                }
+            }
+        }
+
+        char cell(int dx, int dy) {
+            int gy = dy + anchorY, gx = dx + anchorX;
+            if (gy < 0 || gy >= rows.length || gx < 0 || gx >= rows[gy].length()) return '.';
+            return rows[gy].charAt(gx);
+        }
+    }
+
+    private final Pattern[] patterns;
+
+    // Reference cells, whose colours the cells are compared with; relation bit r + 1 means "equal to reference r".
+    private final int[] refDx, refDy;
+    private final long[] needsRef; // Patterns that fail if reference r is outside the image
+    private final int[] bodyRef, visorRef; // Per pattern, -1 if the pattern has no B
+
+    // Cells to check, in order, with kill[i][relation] = patterns that fail on a pixel with that relation.
+    private final int[] cellDx, cellDy;
+    private final int[] cellRefs; // Bit r set if the kill table of the cell depends on reference r
+    private final long[][] kill;
+
+    // Anchors outside [minAnchorX, width - maxRightX) x [minAnchorY, height - maxBelowY) cannot match any pattern.
+    public final int minAnchorX, minAnchorY, maxRightX, maxBelowY;
+
+    private PatternSet(Pattern[] patterns) {
+        if (patterns.length == 0 || patterns.length > MAX_PATTERNS)
+            throw new IllegalArgumentException("Between 1 and " + MAX_PATTERNS + " patterns are supported");
+        this.patterns = patterns.clone();
+        int n = patterns.length;
+
+        int minDx = Integer.MAX_VALUE, minDy = Integer.MAX_VALUE, maxDx = Integer.MIN_VALUE, maxDy = Integer.MIN_VALUE;
+        for (Pattern pattern : patterns) {
+            minDx = Math.min(minDx, -pattern.anchorX);
+            minDy = Math.min(minDy, -pattern.anchorY);
+            for (int gy = 0; gy < pattern.rows.length; gy++) {
+                maxDx = Math.max(maxDx, pattern.rows[gy].length() - 1 - pattern.anchorX);
+            }
+            maxDy = Math.max(maxDy, pattern.rows.length - 1 - pattern.anchorY);
+        }
+
+        // Reference cells. When a pattern matches, all its A cells have the body colour and all its B cells the visor
+        // colour, so any of them can be its reference: pick cells shared by as many patterns as possible.
+        List<int[]> refs = new ArrayList<>();
+        bodyRef = references(patterns, 'A', refs, minDx, minDy, maxDx, maxDy);
+        visorRef = references(patterns, 'B', refs, minDx, minDy, maxDx, maxDy);
+        for (int p = 0; p < n; p++) {
+            if (bodyRef[p] < 0) throw new IllegalArgumentException("Pattern " + patterns[p].name + " has no A cell");
+        }
+        if (refs.size() > MAX_REFERENCES) throw new IllegalArgumentException("Too many distinct body/visor cells");
+        refDx = new int[refs.size()];
+        refDy = new int[refs.size()];
+        needsRef = new long[refs.size()];
+        for (int r = 0; r < refs.size(); r++) {
+            refDx[r] = refs.get(r)[0];
+            refDy[r] = refs.get(r)[1];
+        }
+        for (int p = 0; p < n; p++) {
+            needsRef[bodyRef[p]] |= 1L << p;
+            if (visorRef[p] >= 0) needsRef[visorRef[p]] |= 1L << p;
+        }
+
+        // All cells used by any pattern, with their kill tables. A B cell also has to differ from the body colour.
+        int relations = 1 << (refs.size() + 1);
+        List<int[]> cells = new ArrayList<>();
+        List<long[]> kills = new ArrayList<>();
+        for (int dy = minDy; dy <= maxDy; dy++) {
+            for (int dx = minDx; dx <= maxDx; dx++) {
+                long[] table = new long[relations];
+                int constrained = 0, selective = 0, usedRefs = 0;
+                for (int p = 0; p < n; p++) {
+                    char c = patterns[p].cell(dx, dy);
+                    if (c == '.') continue;
+                    int ref = c == 'A' || c == 'a' ? bodyRef[p] : visorRef[p];
+                    if (ref < 0) throw new IllegalArgumentException("Pattern " + patterns[p].name + " uses b without B");
+                    int body = bodyRef[p];
+                    constrained++;
+                    // Comparing a reference cell with itself only tells whether it is inside the image.
+                    if ((c == 'A' || c == 'B') && (refDx[ref] != dx || refDy[ref] != dy)) selective++;
+                    usedRefs |= 1 << ref;
+                    if (c == 'B') usedRefs |= 1 << body;
+                    for (int rel = 0; rel < relations; rel++) {
+                        boolean inside = (rel & 1) != 0, equal = (rel & (2 << ref)) != 0;
+                        boolean ok;
+                        if (c == 'A') ok = inside && equal;
+                        else if (c == 'B') ok = inside && equal && (rel & (2 << body)) == 0;
+                        else ok = !(inside && equal);
+                        if (!ok) table[rel] |= 1L << p;
+                    }
+                }
+                if (constrained == 0) continue;
+                cells.add(new int[]{dx, dy, selective, constrained, usedRefs});
+                kills.add(table);
+            }
+        }
+
+        // Check the cells where most patterns require a colour first: they fail most often.
+        Integer[] order = new Integer[cells.size()];
+        for (int i = 0; i < order.length; i++) order[i] = i;
+        Arrays.sort(order, (i, j) -> {
+            int[] ci = cells.get(i), cj = cells.get(j);
+            if (ci[2] != cj[2]) return cj[2] - ci[2];
+            return cj[3] - ci[3];
+        });
+        cellDx = new int[order.length];
+        cellDy = new int[order.length];
+        cellRefs = new int[order.length];
+        kill = new long[order.length][];
+        for (int i = 0; i < order.length; i++) {
+            cellDx[i] = cells.get(order[i])[0];
+            cellDy[i] = cells.get(order[i])[1];
+            cellRefs[i] = cells.get(order[i])[4];
+            kill[i] = kills.get(order[i]);
+        }
+
+        // Anchor ranges: a pattern can only match if its A and B cells fit in the image.
+        int loX = Integer.MAX_VALUE, loY = Integer.MAX_VALUE, hiX = Integer.MAX_VALUE, hiY = Integer.MAX_VALUE;
+        for (Pattern pattern : patterns) {
+            int pLoX = 0, pLoY = 0, pHiX = 0, pHiY = 0;
+            for (int gy = 0; gy < pattern.rows.length; gy++) {
+                for (int gx = 0; gx < pattern.rows[gy].length(); gx++) {
+                    char c = pattern.rows[gy].charAt(gx);
+                    if (c != 'A' && c != 'B') continue;
+                    pLoX = Math.max(pLoX, pattern.anchorX - gx);
+                    pLoY = Math.max(pLoY, pattern.anchorY - gy);
+                    pHiX = Math.max(pHiX, gx - pattern.anchorX);
+                    pHiY = Math.max(pHiY, gy - pattern.anchorY);
+                }
+            }
+            loX = Math.min(loX, pLoX);
+            loY = Math.min(loY, pLoY);
+            hiX = Math.min(hiX, pHiX);
+            hiY = Math.min(hiY, pHiY);
+        }
+        minAnchorX = loX;
+        minAnchorY = loY;
+        maxRightX = hiX;
+        maxBelowY = hiY;
+    }
+
+    // Greedily picks the cell with c in the most patterns that have no reference yet, until all have one.
+    private static int[] references(Pattern[] patterns, char c, List<int[]> refs, int minDx, int minDy, int maxDx, int maxDy) {
+        int[] ref = new int[patterns.length];
+        Arrays.fill(ref, -1);
+        while (true) {
+            int best = 0, bestDx = 0, bestDy = 0;
+            for (int dy = minDy; dy <= maxDy; dy++) {
+                for (int dx = minDx; dx <= maxDx; dx++) {
+                    int count = 0;
+                    for (int p = 0; p < patterns.length; p++) {
+                        if (ref[p] < 0 && patterns[p].cell(dx, dy) == c) count++;
+                    }
+                    if (count > best) {
+                        best = count;
+                        bestDx = dx;
+                        bestDy = dy;
+                    }
+                }
+            }
+            if (best == 0) return ref;
+            refs.add(new int[]{bestDx, bestDy});
+            for (int p = 0; p < patterns.length; p++) {
+                if (ref[p] < 0 && patterns[p].cell(bestDx, bestDy) == c) ref[p] = refs.size() - 1;
+            }
+        }
+    }
+
+    public static PatternSet compile(Pattern... patterns) {
+        return new PatternSet(patterns);
+    }
+
+    public int size() {
+        return patterns.length;
+    }
+
+    public Pattern pattern(int i) {
+        return patterns[i];
+    }
+
+    /** Returns a matcher for this set. Matchers keep scratch state, so each thread needs its own. */
+    public Matcher matcher() {
+        return new Matcher();
+    }
+
+    /** Returns the index of the first pattern that matches at anchor (x, y), or -1 if none does. */
+    public int match(int x, int y, Image img) {
+        return new Matcher().match(x, y, img);
+    }
+
+    public final class Matcher {
+        private final int[] refColour = new int[refDx.length];
+
+        private Matcher() {
+        }
+
+        /** Returns the index of the first pattern that matches at anchor (x, y), or -1 if none does. */
+        public int match(int x, int y, Image img) {
+            int width = img.width, height = img.height;
+            long alive = -1L >>> (64 - patterns.length);
+            int[] colours = refColour;
+            int loaded = 0; // References read so far; most anchors fail before all are needed
+
+            for (int i = 0; i < cellDx.length && alive != 0; i++) {
+                for (int missing = cellRefs[i] & ~loaded; missing != 0; missing &= missing - 1) {
+                    int r = Integer.numberOfTrailingZeros(missing);
+                    int px = x + refDx[r], py = y + refDy[r];
+                    if (px < 0 || px >= width || py < 0 || py >= height) {
+                        alive &= ~needsRef[r];
+                        colours[r] = 0; // Only compared for patterns that have failed already
+                    } else {
+                        colours[r] = img.getColor(px, py);
+                    }
+                    loaded |= 1 << r;
+                }
+                int px = x + cellDx[i], py = y + cellDy[i];
+                int rel = 0;
+                if (px >= 0 && px < width && py >= 0 && py < height) {
+                    int colour = img.getColor(px, py);
+                    rel = 1;
+                    for (int refs = cellRefs[i]; refs != 0; refs &= refs - 1) {
+                        int r = Integer.numberOfTrailingZeros(refs);
+                        if (colour == colours[r]) rel |= 2 << r;
+                    }
+                }
+                alive &= ~kill[i][rel];
+            }
+            return alive == 0 ? -1 : Long.numberOfTrailingZeros(alive);
+        }
+    }
+
+    /** Returns the body colour of pattern p matched at (x, y). */
+    public int bodyColour(int p, int x, int y, Image img) {
+        return img.getColor(x + refDx[bodyRef[p]], y + refDy[bodyRef[p]]);
+    }
+}
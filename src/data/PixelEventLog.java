@@ -0,0 +1,160 @@
+package data;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Reads a log of pixel placements, in batches of primitive arrays.
+ *
+ * Two formats are supported:
+ * - CSV, one placement per line: time,x,y,colour. Time is in milliseconds, the colour is #RRGGBB, #AARRGGBB or a
+ *   decimal ARGB int. A first line that does not start with a digit is a header and skipped.
+ * - Binary: the int MAGIC, then one record per placement of long time, int x, int y, int ARGB colour, big-endian.
+ *   It is several times faster to read than CSV; see Writer to convert a log.
+ */
+public class PixelEventLog implements AutoCloseable {
+    public static final int MAGIC = 0x414D5045;
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    /** Placements read by one call to read(); events 0 .. size - 1 are valid. */
+    public static final class Batch {
+        public final long[] time;
+        public final int[] x, y, colour;
+        public int size = 0;
+
+        public Batch(int capacity) {
+            time = new long[capacity];
+            x = new int[capacity];
+            y = new int[capacity];
+            colour = new int[capacity];
+        }
+
+        public int capacity() {
+            return time.length;
+        }
+    }
+
+    private final DataInputStream binary; // Exactly one of binary and csv is set
+    private final BufferedReader csv;
+    private long lineNumber = 0;
+
+    private PixelEventLog(DataInputStream binary, BufferedReader csv) {
+        this.binary = binary;
+        this.csv = csv;
+    }
+
+    /** Opens a log, detecting its format from the first four bytes. */
+    public static PixelEventLog open(String path) throws IOException {
+        BufferedInputStream in = new BufferedInputStream(new FileInputStream(path), BUFFER_SIZE);
+        in.mark(4);
+        DataInputStream data = new DataInputStream(in);
+        int magic;
+        try {
+            magic = data.readInt();
+        } catch (EOFException e) {
+            magic = 0; // Shorter than a header: an (almost) empty CSV file
+        }
+        if (magic == MAGIC) return new PixelEventLog(data, null);
+        in.reset();
+        return new PixelEventLog(null, new BufferedReader(new InputStreamReader(in, StandardCharsets.US_ASCII), BUFFER_SIZE));
+    }
+
+    /** Fills batch with the next placements, up to its capacity. Returns the number read, 0 at the end of the log. */
+    public int read(Batch batch) throws IOException {
+        batch.size = 0;
+        if (binary != null) {
+            while (batch.size < batch.capacity()) {
+                long time;
+                try {
+                    time = binary.readLong();
+                } catch (EOFException e) {
+                    break;
+                }
+                int i = batch.size++;
+                batch.time[i] = time;
+                batch.x[i] = binary.readInt();
+                batch.y[i] = binary.readInt();
+                batch.colour[i] = binary.readInt();
+            }
+            return batch.size;
+        }
+        String line;
+        while (batch.size < batch.capacity() && (line = csv.readLine()) != null) {
+            lineNumber++;
+            if (line.isEmpty() || lineNumber == 1 && !Character.isDigit(line.charAt(0))) continue;
+            parseLine(line, batch);
+        }
+        return batch.size;
+    }
+
+    // Parses time,x,y,colour without splitting the line into substrings.
+    private void parseLine(String line, Batch batch) throws IOException {
+        int c1 = line.indexOf(','), c2 = line.indexOf(',', c1 + 1), c3 = line.indexOf(',', c2 + 1);
+        if (c1 < 0 || c2 < 0 || c3 < 0) throw new IOException("Line " + lineNumber + ": expected time,x,y,colour");
+        try {
+            int i = batch.size;
+            batch.time[i] = Long.parseLong(line, 0, c1, 10);
+            batch.x[i] = Integer.parseInt(line, c1 + 1, c2, 10);
+            batch.y[i] = Integer.parseInt(line, c2 + 1, c3, 10);
+            int end = line.length();
+            if (line.charAt(c3 + 1) == '#') {
+                int rgb = Integer.parseUnsignedInt(line, c3 + 2, end, 16);
+                batch.colour[i] = end - c3 - 2 <= 6 ? 0xFF000000 | rgb : rgb;
+            } else {
+                batch.colour[i] = Integer.parseInt(line, c3 + 1, end, 10);
+            }
+            batch.size++;
+        } catch (NumberFormatException | IndexOutOfBoundsException e) {
+            throw new IOException("Line " + lineNumber + ": " + e.getMessage(), e);
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (binary != null) binary.close();
+        else csv.close();
+    }
+
+    /** Writes a log in the binary format. */
+    public static class Writer implements AutoCloseable {
+        private final DataOutputStream out;
+
+        public Writer(String path) throws IOException {
+            out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(path), BUFFER_SIZE));
+            out.writeInt(MAGIC);
+        }
+
+        public void write(long time, int x, int y, int colour) throws IOException {
+            out.writeLong(time);
+            out.writeInt(x);
+            out.writeInt(y);
+            out.writeInt(colour);
+        }
+
+        @Override
+        public void close() throws IOException {
+            out.close();
+        }
+    }
+
+    /** Converts a log (e.g. a CSV file) to the binary format. Usage: PixelEventLog in.csv out.bin */
+    public static void main(String[] args) throws IOException {
+        Batch batch = new Batch(1 << 14);
+        try (PixelEventLog in = open(args[0]); Writer out = new Writer(args[1])) {
+            while (in.read(batch) > 0) {
+                for (int i = 0; i < batch.size; i++) {
+                    out.write(batch.time[i], batch.x[i], batch.y[i], batch.colour[i]);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,258 @@
+package data;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * Decodes a PNG one row at a time, so that callers only need to keep a few rows in memory.
+ * Supports non-interlaced 8-bit RGB, RGBA and palette images, which is what the canvases we scan use.
+ * The colours are identical to what BufferedImage.getRGB returns for the same file.
+ */
+public class PngScanlineReader implements AutoCloseable {
+    private static final long SIGNATURE = 0x89504E470D0A1A0AL;
+    private static final int IHDR = 0x49484452, PLTE = 0x504C5445, tRNS = 0x74524E53, IDAT = 0x49444154, IEND = 0x49454E44;
+    private static final int RGB = 2, PALETTE = 3, RGBA = 6; // Supported colour types
+
+    public final int width;
+    public final int height;
+    private final int colourType;
+    private final int bpp; // Bytes per pixel
+    private final int[] palette;
+    private final DataInputStream in;
+    private final InputStream pixels; // Inflated IDAT data
+    private int remaining; // Bytes left in the current IDAT chunk
+    private byte[] previous, current; // Unfiltered scanlines, including the filter type byte
+    private int rowsRead = 0;
+
+    private PngScanlineReader(int width, int height, int colourType, int[] palette, DataInputStream in) {
+        this.width = width;
+        this.height = height;
+        this.colourType = colourType;
+        this.bpp = colourType == RGBA ? 4 : colourType == RGB ? 3 : 1;
+        this.palette = palette;
+        this.in = in;
+        this.pixels = new InflaterInputStream(new IdatStream(), new Inflater(), 1 << 16);
+        this.previous = new byte[1 + width * bpp];
+        this.current = new byte[1 + width * bpp];
+    }
+
+    /**
+     * Opens a PNG and reads its header, up to the first IDAT chunk.
+     * Returns null if the file is not a PNG, or a PNG in a format this reader does not support; ImageIO may still
+     * read it. Throws IOException if the file cannot be read or is a malformed PNG.
+     */
+    public static PngScanlineReader open(String path) throws IOException {
+        DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(path), 1 << 16));
+        try {
+            if (in.readLong() != SIGNATURE) {
+                in.close();
+                return null;
+            }
+            int width = 0, height = 0, colourType = -1;
+            int[] palette = null;
+            while (true) {
+                int length = in.readInt();
+                int type = in.readInt();
+                if (type == IDAT) {
+                    // Leave the stream at the start of the pixel data.
+                    if (colourType == PALETTE && palette == null) break;
+                    PngScanlineReader reader = new PngScanlineReader(width, height, colourType, palette, in);
+                    reader.remaining = length;
+                    return reader;
+                } else if (type == IHDR) {
+                    width = in.readInt();
+                    height = in.readInt();
+                    int bitDepth = in.readUnsignedByte();
+                    colourType = in.readUnsignedByte();
+                    in.skipBytes(2); // Compression and filter method, both always 0
+                    int interlace = in.readUnsignedByte();
+                    if (bitDepth != 8 || interlace != 0 || (colourType != RGB && colourType != RGBA && colourType != PALETTE))
+                        break;
+                } else if (type == PLTE) {
+                    if (length > 3 * 256) throw new IOException("PLTE chunk of " + length + " bytes in " + path);
+                    palette = new int[256];
+                    for (int i = 0; i < length / 3; i++) {
+                        palette[i] = 0xFF000000 | (in.readUnsignedByte() << 16) | (in.readUnsignedByte() << 8) | in.readUnsignedByte();
+                    }
+                    in.skipBytes(length % 3);
+                } else if (type == tRNS) {
+                    // Only palette transparency is handled, ImageIO converts the other cases differently.
+                    if (colourType != PALETTE || palette == null) break;
+                    if (length > 256) throw new IOException("tRNS chunk of " + length + " bytes in " + path);
+                    for (int i = 0; i < length; i++) {
+                        palette[i] = (palette[i] & 0x00FFFFFF) | (in.readUnsignedByte() << 24);
+                    }
+                } else if (type == IEND) {
+                    throw new EOFException("No pixel data in " + path);
+                } else {
+                    skipFully(in, length);
+                }
+                in.readInt(); // CRC
+            }
+        } catch (IOException e) {
+            in.close();
+            throw e;
+        }
+        in.close();
+        return null;
+    }
+
+    /** Returns the number of rows that have been read so far. */
+    public int rowsRead() {
+        return rowsRead;
+    }
+
+    /** Decodes the next row into width ARGB pixels, starting at dst[offset]. */
+    public void readRow(int[] dst, int offset) throws IOException {
+        if (rowsRead == height) throw new EOFException("All " + height + " rows have been read");
+        byte[] tmp = previous;
+        previous = current;
+        current = tmp;
+        readFully(pixels, current);
+        unfilter(current, previous, bpp);
+        toArgb(current, dst, offset);
+        rowsRead++;
+    }
+
+    /** Reverses the PNG filter of a scanline in place. Both arrays start with the filter type byte. */
+    static void unfilter(byte[] line, byte[] prev, int bpp) throws IOException {
+        unfilter(line, 0, prev, 0, line.length, bpp);
+    }
+
+    /**
+     * Reverses the PNG filter of the n-byte scanline at line[at] in place; prev[prevAt] is the unfiltered scanline
+     * above it. Both offsets point at the filter type byte.
+     */
+    static void unfilter(byte[] line, int at, byte[] prev, int prevAt, int n, int bpp) throws IOException {
+        int d = prevAt - at; // prev[i + d] is above line[i]
+        int end = at + n, first = at + 1 + bpp; // Bytes before first have no left neighbour
+        switch (line[at]) {
+            case 0: // None
+                break;
+            case 1: // Sub
+                for (int i = first; i < end; i++) line[i] += line[i - bpp];
+                break;
+            case 2: // Up
+                for (int i = at + 1; i < end; i++) line[i] += prev[i + d];
+                break;
+            case 3: // Average
+                for (int i = at + 1; i < first; i++) line[i] += (prev[i + d] & 0xFF) >>> 1;
+                for (int i = first; i < end; i++) {
+                    line[i] += ((line[i - bpp] & 0xFF) + (prev[i + d] & 0xFF)) >>> 1;
+                }
+                break;
+            case 4: // Paeth
+                for (int i = at + 1; i < first; i++) line[i] += prev[i + d]; // With a = c = 0, the predictor is b
+                for (int i = first; i < end; i++) {
+                    int a = line[i - bpp] & 0xFF;
+                    int b = prev[i + d] & 0xFF;
+                    int c = prev[i + d - bpp] & 0xFF;
+                    int pa = Math.abs(b - c), pb = Math.abs(a - c), pc = Math.abs(a + b - 2 * c); // |p - a| etc.
+                    line[i] += (pa <= pb && pa <= pc) ? a : (pb <= pc ? b : c);
+                }
+                break;
+            default:
+                throw new IOException("Invalid PNG filter type " + line[at]);
+        }
+    }
+
+    /** Converts an unfiltered scanline (after the filter type byte) to ARGB. */
+    void toArgb(byte[] line, int[] dst, int offset) {
+        toArgb(line, 0, dst, offset);
+    }
+
+    /** Converts the unfiltered scanline whose filter type byte is at line[at] to ARGB. */
+    void toArgb(byte[] line, int at, int[] dst, int offset) {
+        int i = at + 1;
+        switch (colourType) {
+            case RGBA:
+                for (int x = 0; x < width; x++, i += 4) {
+                    dst[offset + x] = ((line[i + 3] & 0xFF) << 24) | ((line[i] & 0xFF) << 16) | ((line[i + 1] & 0xFF) << 8) | (line[i + 2] & 0xFF);
+                }
+                break;
+            case RGB:
+                for (int x = 0; x < width; x++, i += 3) {
+                    dst[offset + x] = 0xFF000000 | ((line[i] & 0xFF) << 16) | ((line[i + 1] & 0xFF) << 8) | (line[i + 2] & 0xFF);
+                }
+                break;
+            default:
+                for (int x = 0; x < width; x++, i++) {
+                    dst[offset + x] = palette[line[i] & 0xFF];
+                }
+        }
+    }
+
+    /** Bytes per scanline of the pixel data, including the filter type byte. */
+    int stride() {
+        return 1 + width * bpp;
+    }
+
+    int bytesPerPixel() {
+        return bpp;
+    }
+
+    /** Inflates the next len bytes of filtered scanlines into buf[off], for decoders that unfilter them themselves. */
+    void readFiltered(byte[] buf, int off, int len) throws IOException {
+        readFully(pixels, buf, off, len);
+    }
+
+    @Override
+    public void close() throws IOException {
+        in.close();
+    }
+
+    private static void readFully(InputStream in, byte[] buf) throws IOException {
+        readFully(in, buf, 0, buf.length);
+    }
+
+    private static void readFully(InputStream in, byte[] buf, int off, int len) throws IOException {
+        int end = off + len;
+        while (off < end) {
+            int n = in.read(buf, off, end - off);
+            if (n < 0) throw new EOFException("PNG pixel data ended early");
+            off += n;
+        }
+    }
+
+    private static void skipFully(DataInputStream in, long n) throws IOException {
+        while (n > 0) {
+            int skipped = in.skipBytes((int) Math.min(n, Integer.MAX_VALUE));
+            if (skipped <= 0) throw new EOFException();
+            n -= skipped;
+        }
+    }
+
+    /** The concatenated contents of consecutive IDAT chunks. */
+    private class IdatStream extends InputStream {
+        private boolean done = false;
+
+        @Override
+        public int read() throws IOException {
+            byte[] b = new byte[1];
+            return read(b, 0, 1) < 0 ? -1 : b[0] & 0xFF;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            while (remaining == 0) {
+                if (done) return -1;
+                in.readInt(); // CRC of the previous chunk
+                remaining = in.readInt();
+                if (in.readInt() != IDAT) {
+                    done = true;
+                    return -1;
+                }
+            }
+            int n = in.read(b, off, Math.min(len, remaining));
+            if (n < 0) throw new EOFException("PNG ended inside an IDAT chunk");
+            remaining -= n;
+            return n;
+        }
+    }
+}
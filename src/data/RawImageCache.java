@@ -0,0 +1,133 @@
+package data;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Raw sidecar files holding the decoded pixels of a PNG, so that later runs can memory-map them instead of decoding.
+ * The mapping is read-only and lives in the page cache, so several JVMs working on the same image share it.
+ * Disable with -Damongus.rawCache=false.
+ *
+ * File format (native byte order):
+ *   0  int  magic ("AMGR")
+ *   4  int  format version
+ *   8  int  width
+ *   12 int  height
+ *   16 int  layout (Image.Layout ordinal)
+ *   20 int  byte order (1 = little endian, 0 = big endian)
+ *   24 ...  padding up to HEADER_SIZE
+ *   64 int[] pixels in the packed order of the layout
+ */
+public class RawImageCache {
+    public static final boolean ENABLED = Boolean.parseBoolean(System.getProperty("amongus.rawCache", "true"));
+
+    private static final int MAGIC = 0x414D4752;
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 64;
+
+    /** Returns the sidecar file of an image, next to the PNG. Each layout gets its own sidecar. */
+    public static File sidecar(String path, Image.Layout layout) {
+        return new File(path + (layout == Image.Layout.TILED ? ".tiled.raw" : ".raw"));
+    }
+
+    /** Maps the sidecar of an image, or returns null if there is no sidecar or it is older than the PNG. */
+    static Image map(String path, Image.Layout layout) {
+        File png = new File(path);
+        File raw = sidecar(path, layout);
+        if (!raw.isFile() || raw.lastModified() < png.lastModified()) return null;
+
+        try (FileChannel channel = FileChannel.open(raw.toPath(), StandardOpenOption.READ)) {
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).order(ByteOrder.nativeOrder());
+            if (channel.read(header, 0) != HEADER_SIZE) return null;
+            header.flip();
+            if (header.getInt(0) != MAGIC || header.getInt(4) != VERSION) return null;
+            int width = header.getInt(8);
+            int height = header.getInt(12);
+            if (header.getInt(16) != layout.ordinal() || header.getInt(20) != byteOrderFlag()) return null;
+
+            long size = Image.size(width, height, layout);
+            if (channel.size() < HEADER_SIZE + size * 4) return null;
+
+            // The mappings stay valid after the channel is closed.
+            int nChunks = (int) ((size + Image.CHUNK_MASK) >>> Image.CHUNK_SHIFT);
+            IntBuffer[] chunks = new IntBuffer[nChunks];
+            for (int i = 0; i < nChunks; i++) {
+                long first = (long) i << Image.CHUNK_SHIFT;
+                long length = Math.min(1L << Image.CHUNK_SHIFT, size - first);
+                MappedByteBuffer bytes = channel.map(FileChannel.MapMode.READ_ONLY, HEADER_SIZE + first * 4, length * 4);
+                chunks[i] = bytes.order(ByteOrder.nativeOrder()).asIntBuffer();
+            }
+            return new Image(width, height, chunks, layout);
+        } catch (IOException e) {
+            System.err.println("RawImageCache: could not map " + raw + ", decoding " + path + " instead: " + e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * Writes the sidecar of an image. Failing to write it is not fatal, the next run decodes the PNG again.
+     * Every writer has its own temporary file, so loaders of the same PNG, in this JVM or others, never mix their bytes;
+     * the last one to finish replaces the sidecar.
+     */
+    static void write(String path, Image img) {
+        File raw = sidecar(path, img.layout()).getAbsoluteFile();
+        long size = Image.size(img.width, img.height, img.layout());
+        Path tmp;
+        try {
+            tmp = Files.createTempFile(raw.getParentFile().toPath(), raw.getName() + ".", ".tmp");
+        } catch (IOException e) {
+            System.err.println("RawImageCache: could not write " + raw + ": " + e.getMessage());
+            return;
+        }
+
+        try {
+            try (FileChannel channel = FileChannel.open(tmp, StandardOpenOption.WRITE)) {
+                ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).order(ByteOrder.nativeOrder());
+                header.putInt(MAGIC).putInt(VERSION).putInt(img.width).putInt(img.height)
+                        .putInt(img.layout().ordinal()).putInt(byteOrderFlag());
+                header.clear();
+                writeFully(channel, header);
+
+                int block = 1 << 18;
+                int[] ints = new int[block];
+                ByteBuffer bytes = ByteBuffer.allocateDirect(block * 4).order(ByteOrder.nativeOrder());
+                for (long i = 0; i < size; i += block) {
+                    int n = (int) Math.min(block, size - i);
+                    img.copy((int) i, ints, 0, n);
+                    bytes.clear();
+                    bytes.asIntBuffer().put(ints, 0, n);
+                    bytes.limit(n * 4);
+                    writeFully(channel, bytes);
+                }
+            }
+            // Readers never see a half-written sidecar.
+            Files.move(tmp, raw.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            System.err.println("RawImageCache: could not write " + raw + ": " + e.getMessage());
+            try {
+                Files.deleteIfExists(tmp);
+            } catch (IOException ignored) {
+                // Only a leftover temporary file
+            }
+        }
+    }
+
+    private static void writeFully(FileChannel channel, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+    }
+
+    private static int byteOrderFlag() {
+        return ByteOrder.nativeOrder() == ByteOrder.LITTLE_ENDIAN ? 1 : 0;
+    }
+}
@@ -0,0 +1,133 @@
+package solutions;
+
+import data.ColourHistogram;
+import data.Image;
+
+import java.nio.IntBuffer;
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Finder for multi-socket machines, which keeps every tile of the image in the memory of the socket that scans it.
+ *
+ * load copies an image into off-heap tiles (Image.ofTiles). Worker i owns a fixed band of tile rows: it allocates
+ * those tiles, so with Linux's first-touch policy their pages are placed on the node it runs on, and every count
+ * has the same worker scan the same band. Unlike Fork/Join, there is no work stealing that would move a band to a
+ * thread on the other socket; the price is that an unevenly filled image is not rebalanced.
+ *
+ * Java cannot pin threads to nodes, so this relies on the scheduler keeping each long-lived worker on its node,
+ * which Linux does unless the machine is oversubscribed. Where the pages ended up can be checked with
+ * numastat -p <pid> (or /proc/<pid>/numa_maps) while the image is loaded. Images not created by load are counted
+ * by the same bands, without the placement.
+ */
+public class AffinityFinder implements AmongiFinder, AutoCloseable {
+    final int p; // Number of workers
+    final ExecutorService[] workers; // One thread each, for the lifetime of the finder
+
+    public AffinityFinder(int p) {
+        this.p = p;
+        this.workers = new ExecutorService[p];
+        for (int i = 0; i < p; i++) {
+            String name = "AffinityFinder-" + i;
+            workers[i] = Executors.newSingleThreadExecutor(r -> {
+                Thread thread = new Thread(r, name);
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+    }
+
+    /** Returns the tile rows [first, last) of worker i; the same for every call with the same image size. */
+    static int[] band(int i, int p, int tilesY) {
+        return new int[]{(int) ((long) tilesY * i / p), (int) ((long) tilesY * (i + 1) / p)};
+    }
+
+    /** Copies img into off-heap tiles, each allocated and written by the worker that will scan it. */
+    public Image load(Image img) {
+        int[] tileCounts = Image.tileCounts(img.width, img.height);
+        int tilesX = tileCounts[0], tilesY = tileCounts[1];
+        IntBuffer[] tiles = new IntBuffer[tilesX * tilesY];
+        runOnWorkers(i -> {
+            int[] band = band(i, p, tilesY);
+            int[] row = new int[Image.TILE_SIZE];
+            for (int ty = band[0]; ty < band[1]; ty++) {
+                for (int tx = 0; tx < tilesX; tx++) {
+                    IntBuffer tile = Image.allocateTile();
+                    int x0 = tx * Image.TILE_SIZE, y0 = ty * Image.TILE_SIZE;
+                    int w = Math.min(Image.TILE_SIZE, img.width - x0), h = Math.min(Image.TILE_SIZE, img.height - y0);
+                    for (int dy = 0; dy < h; dy++) {
+                        copyRow(img, x0, y0 + dy, w, row);
+                        tile.put(dy * Image.TILE_SIZE, row, 0, w);
+                    }
+                    tiles[ty * tilesX + tx] = tile;
+                }
+            }
+            return null;
+        });
+        return Image.ofTiles(img.width, img.height, tiles);
+    }
+
+    // Copies w pixels of row y, starting at column x, into dst.
+    private static void copyRow(Image img, int x, int y, int w, int[] dst) {
+        if (img.layout() == Image.Layout.ROW_MAJOR) {
+            img.copy(img.index(x, y), dst, 0, w);
+        } else {
+            for (int dx = 0; dx < w; dx++) dst[dx] = img.getColor(x + dx, y);
+        }
+    }
+
+    public AbstractMap<Integer, Integer> countAmongiByColour(Image img) {
+        int tilesY = Image.tileCounts(img.width, img.height)[1];
+        List<ColourHistogram> results = runOnWorkers(i -> {
+            int[] band = band(i, p, tilesY);
+            ColourHistogram counts = new ColourHistogram();
+            int y1 = band[0] * Image.TILE_SIZE, y2 = Math.min(img.height, band[1] * Image.TILE_SIZE);
+            TileScanner.DEFAULT.scan(img, 0, img.width, y1, y2, counts);
+            return counts;
+        });
+        ColourHistogram total = results.get(0);
+        for (int i = 1; i < results.size(); i++) {
+            total = ColourHistogram.merge(total, results.get(i));
+        }
+        return total.asMap();
+    }
+
+    interface WorkerTask<T> {
+        T run(int worker);
+    }
+
+    // Runs task on every worker, each on its own thread, and returns the results in worker order.
+    private <T> List<T> runOnWorkers(WorkerTask<T> task) {
+        List<Future<T>> futures = new ArrayList<>(p);
+        for (int i = 0; i < p; i++) {
+            int worker = i;
+            futures.add(workers[i].submit(() -> task.run(worker)));
+        }
+        List<T> results = new ArrayList<>(p);
+        try {
+            for (Future<T> future : futures) {
+                results.add(future.get());
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while waiting for the workers", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException) throw (RuntimeException) e.getCause();
+            throw new IllegalStateException(e.getCause());
+        }
+        return results;
+    }
+
+    /** Stops the workers. Images created by load stay valid. */
+    @Override
+    public void close() {
+        for (ExecutorService worker : workers) {
+            worker.shutdown();
+        }
+    }
+}
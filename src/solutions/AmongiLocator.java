@@ -0,0 +1,97 @@
+package solutions;
+
+import data.AmongiPositions;
+import data.Amongus;
+import data.Image;
+import data.PalettedImage;
+
+import java.util.AbstractMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * Finds where the amongi are, not just how many there are per colour: see AmongiPositions.
+ *
+ * Leaves scan their rows with TileScanner like the counting finders, and only classify the (rare) hits, so locating
+ * costs about as much as counting. Each leaf collects into its own AmongiPositions; these are concatenated up the
+ * tree and indexed once at the end.
+ */
+public class AmongiLocator implements AmongiFinder, AutoCloseable {
+    static final int LEAVES_PER_THREAD = 8;
+    static final int MIN_ROWS = 16; // Smallest leaf, in rows
+    static final int CELL_SHIFT = 6; // 64 x 64 pixel cells for the grid index
+
+    final int p; // Number of threads
+    final ForkJoinPool forkJoinPool;
+    final boolean ownsPool; // Whether close() shuts the pool down
+
+    public AmongiLocator(int p) {
+        this.p = p;
+        this.forkJoinPool = new ForkJoinPool(p);
+        this.ownsPool = true;
+    }
+
+    /** Runs on an existing pool, e.g. the one of a FinderService. close() leaves the pool running. */
+    public AmongiLocator(ForkJoinPool pool) {
+        this.p = pool.getParallelism();
+        this.forkJoinPool = pool;
+        this.ownsPool = false;
+    }
+
+    /** Returns all amongi in img, with a grid index for range queries. Colours are ARGB, also for paletted images. */
+    public AmongiPositions locate(Image img) {
+        int rows = Math.max(MIN_ROWS, img.height / (p * LEAVES_PER_THREAD));
+        AmongiPositions positions = forkJoinPool.invoke(new LocateTaskFJ(img, 0, img.height, rows));
+        positions.buildIndex(img.width, img.height, CELL_SHIFT);
+        return positions;
+    }
+
+    public AbstractMap<Integer, Integer> countAmongiByColour(Image img) {
+        return locate(img).countByColour();
+    }
+
+    /** Shuts down the worker threads, if this locator created them. */
+    @Override
+    public void close() {
+        if (ownsPool) forkJoinPool.shutdown();
+    }
+
+    static class LocateTaskFJ extends RecursiveTask<AmongiPositions> {
+        private final Image img;
+        private final int y1, y2;
+        private final int sequential_threshold_y;
+
+        LocateTaskFJ(Image img, int y1, int y2, int sequential_threshold_y) {
+            this.img = img;
+            this.y1 = y1;
+            this.y2 = y2;
+            this.sequential_threshold_y = sequential_threshold_y;
+        }
+
+        @Override
+        protected AmongiPositions compute() {
+            if (y2 - y1 <= sequential_threshold_y) {
+                AmongiPositions positions = new AmongiPositions();
+                PalettedImage paletted = img instanceof PalettedImage ? (PalettedImage) img : null;
+                TileScanner.DEFAULT.scan(img, 0, img.width, y1, y2, (x, y, colour) -> {
+                    int kind = Amongus.classify(x, y, img);
+                    int visor = Amongus.visorColor(x, y, img, kind);
+                    if (paletted != null) {
+                        colour = paletted.paletteColour(colour);
+                        visor = paletted.paletteColour(visor);
+                    }
+                    positions.add(x, y, kind, colour, visor);
+                });
+                return positions;
+            }
+            int pivotY = (y1 + y2) / 2;
+            LocateTaskFJ top = new LocateTaskFJ(img, y1, pivotY, sequential_threshold_y);
+            LocateTaskFJ bottom = new LocateTaskFJ(img, pivotY, y2, sequential_threshold_y);
+            top.fork();
+            AmongiPositions bottomResult = bottom.compute();
+            AmongiPositions topResult = top.join();
+            topResult.addAll(bottomResult); // Keeps the detections in scan order
+            return topResult;
+        }
+    }
+}
@@ -0,0 +1,124 @@
+package solutions;
+
+import data.Amongus;
+import data.ColourHistogram;
+import data.Image;
+
+import java.util.AbstractMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * Two-pass finder on neighbour-equality bitplanes (EqualityMasks).
+ *
+ * Pass 1 turns a strip of rows into "equals right neighbour" and "equals lower neighbour" masks. Pass 2 evaluates
+ * 64 anchors at a time with ANDs of shifted mask words: every equality between neighbouring cells that detect implies,
+ * for the right- and left-facing patterns (see filter). Not every check of detect is such an equality (e.g. the
+ * pixel above-left of the body must differ from the body colour, but is not next to it), so the few anchors that pass
+ * are confirmed with Amongus.detectCandidate.
+ * Leaves of the Fork/Join tree each build the masks of their own strip, which stay in cache while they are scanned.
+ */
+public class BitplaneFinder implements AmongiFinder, AutoCloseable {
+    static final int LEAVES_PER_THREAD = 8;
+    static final int MIN_ROWS = 16; // Smallest strip, in rows
+
+    final int p; // Number of threads
+    final ForkJoinPool forkJoinPool;
+
+    public BitplaneFinder(int p) {
+        this.p = p;
+        this.forkJoinPool = new ForkJoinPool(p);
+    }
+
+    public AbstractMap<Integer, Integer> countAmongiByColour(Image img) {
+        int rows = Math.max(MIN_ROWS, img.height / (p * LEAVES_PER_THREAD));
+        return forkJoinPool.invoke(new BitplaneTaskFJ(img, 0, img.height, rows)).asMap();
+    }
+
+    /** Shuts down the worker threads. */
+    @Override
+    public void close() {
+        forkJoinPool.shutdown();
+    }
+
+    /** Visits the amongi anchored in [0, width) x [y1, y2), using masks that cover rows y1 - 1 .. y2 + 2. */
+    static void scan(Image img, EqualityMasks m, int y1, int y2, TileScanner.HitVisitor visitor) {
+        int xEnd = img.width - 3, yEnd = Math.min(y2, img.height - 3);
+        for (int y = y1; y < yEnd; y++) {
+            for (int x = 0; x < xEnd; x += 64) {
+                long mask = filter(m, x, y);
+                int lanes = xEnd - x;
+                if (lanes < 64) mask &= (1L << lanes) - 1;
+                while (mask != 0) {
+                    int ax = x + Long.numberOfTrailingZeros(mask);
+                    mask &= mask - 1;
+                    if (Amongus.detectCandidate(ax, y, img)) visitor.hit(ax, y, Amongus.bodyColor(ax, y, img));
+                }
+            }
+        }
+    }
+
+    /**
+     * Bit j is set if anchor (x + j, y) passes all neighbour-equality conditions of a right- or left-facing amongus.
+     * R(dy, dx) and D(dy, dx) are the right and down masks at (x + dx, y + dy) of the pattern table in Amongus.
+     */
+    static long filter(EqualityMasks m, int x, int y) {
+        // 3rd row: a run of exactly 4 (shared by all patterns).
+        long row3 = ~m.right(y + 2, x - 1) & m.right(y + 2, x) & m.right(y + 2, x + 1) & m.right(y + 2, x + 2)
+                & ~m.right(y + 2, x + 3);
+        if (row3 == 0) return 0;
+        // 2nd row: two pairs of different colours (body and visor), with no equal neighbour on either side.
+        long row2 = m.right(y + 1, x) & ~m.right(y + 1, x + 1) & m.right(y + 1, x + 2)
+                & ~m.right(y + 1, x - 1) & ~m.right(y + 1, x + 3);
+        long candidates = row3 & row2;
+        if (candidates == 0) return 0;
+        long d1x0 = m.down(y + 1, x), d1x1 = m.down(y + 1, x + 1), d1x2 = m.down(y + 1, x + 2), d1x3 = m.down(y + 1, x + 3);
+        long d0x0 = m.down(y, x), d0x1 = m.down(y, x + 1), d0x2 = m.down(y, x + 2), d0x3 = m.down(y, x + 3);
+        long d2x0 = m.down(y + 2, x), d2x1 = m.down(y + 2, x + 1), d2x2 = m.down(y + 2, x + 2), d2x3 = m.down(y + 2, x + 3);
+        long above0 = m.down(y - 1, x), above1 = m.down(y - 1, x + 1), above2 = m.down(y - 1, x + 2), above3 = m.down(y - 1, x + 3);
+        long r0m1 = m.right(y, x - 1), r0x0 = m.right(y, x), r0x1 = m.right(y, x + 1), r0x2 = m.right(y, x + 2), r0x3 = m.right(y, x + 3);
+
+        // Right-facing: body at columns 0-1 of the 2nd row, visor at 2-3; 1st row is columns 1-3.
+        long right = ~r0x0 & r0x1 & r0x2 & ~r0x3
+                & ~d0x0 & d0x1 & ~d0x2 & ~d0x3
+                & d1x0 & d1x1 & ~d1x2 & ~d1x3
+                & ~d2x0 & d2x1 & d2x3
+                & ~above1 & ~above2 & ~above3;
+        // Left-facing: visor at columns 0-1, body at 2-3; 1st row is columns 0-2.
+        long left = ~r0m1 & r0x0 & r0x1 & ~r0x2
+                & ~d0x0 & ~d0x1 & d0x2 & ~d0x3
+                & ~d1x0 & ~d1x1 & d1x2 & d1x3
+                & d2x0 & d2x2 & ~d2x3
+                & ~above0 & ~above1 & ~above2;
+        return candidates & (right | left);
+    }
+
+    class BitplaneTaskFJ extends RecursiveTask<ColourHistogram> {
+        private final Image img;
+        private final int y1, y2;
+        private final int sequential_threshold_y;
+
+        BitplaneTaskFJ(Image img, int y1, int y2, int sequential_threshold_y) {
+            this.img = img;
+            this.y1 = y1;
+            this.y2 = y2;
+            this.sequential_threshold_y = sequential_threshold_y;
+        }
+
+        @Override
+        protected ColourHistogram compute() {
+            if (y2 - y1 <= sequential_threshold_y) {
+                ColourHistogram counts = new ColourHistogram();
+                EqualityMasks masks = new EqualityMasks(img, y1 - 1, y2 + 3);
+                scan(img, masks, y1, y2, (x, y, colour) -> counts.increment(colour));
+                return counts;
+            }
+            int pivotY = (y1 + y2) / 2;
+            BitplaneTaskFJ top = new BitplaneTaskFJ(img, y1, pivotY, sequential_threshold_y);
+            BitplaneTaskFJ bottom = new BitplaneTaskFJ(img, pivotY, y2, sequential_threshold_y);
+            top.fork();
+            ColourHistogram bottomResult = bottom.compute();
+            return ColourHistogram.merge(top.join(), bottomResult);
+        }
+    }
+}
@@ -0,0 +1,270 @@
+package solutions;
+
+import data.ColourHistogram;
+import data.Image;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.AbstractMap;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Persistent cache of per-tile counts in front of another AmongiFinder, for images that are counted again unchanged
+ * or with only a few regions changed.
+ *
+ * The anchors of an image are split into tiles of tileSize x tileSize. The key of a tile is a 128-bit hash of every
+ * pixel its anchors read, i.e. the tile plus its halo (see ShardWorker), and of where the halo is cut off by the edges
+ * of the image. So a change to a pixel invalidates exactly the tiles whose counts it can affect, including the
+ * neighbours of the tile it is in, and equal tiles share one entry wherever they are. Only tiles whose key is not
+ * cached are counted, by the wrapped finder on a copy of the tile and its halo; counting an unchanged image costs
+ * only hashing it. The hash is not cryptographic: it guards against accidental, not deliberate, collisions.
+ *
+ * The histograms are kept in an LRU map in memory and in one file per key in a directory, which is LRU too: a hit
+ * refreshes the modification time of its file, and the oldest files are deleted beyond maxFiles.
+ */
+public class CachingFinder implements AmongiFinder, AutoCloseable {
+    static final int MEMORY_ENTRIES = 1 << 16;
+    static final int LEAF_TILES = 4; // Tiles per Fork/Join leaf
+
+    final AmongiFinder finder; // Counts the tiles that are not cached
+    final Path directory;
+    final int tileSize;
+    final int maxFiles;
+    final ForkJoinPool forkJoinPool;
+
+    private final Map<String, int[]> memory = new LinkedHashMap<>(16, 0.75f, true) { // Key -> colour, count, ...
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, int[]> eldest) {
+            return size() > MEMORY_ENTRIES;
+        }
+    };
+    private final LinkedHashMap<String, Boolean> files = new LinkedHashMap<>(16, 0.75f, true); // Keys on disk, LRU first
+    private final AtomicLong hits = new AtomicLong(), misses = new AtomicLong();
+
+    public CachingFinder(AmongiFinder finder, Path directory, int tileSize, int maxFiles, int p) {
+        this.finder = finder;
+        this.directory = directory;
+        this.tileSize = tileSize;
+        this.maxFiles = maxFiles;
+        this.forkJoinPool = new ForkJoinPool(p);
+        try {
+            Files.createDirectories(directory);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        // Rebuild the LRU order of the files from their modification times.
+        File[] existing = directory.toFile().listFiles((dir, name) -> name.endsWith(".hist"));
+        if (existing != null) {
+            Arrays.sort(existing, Comparator.comparingLong(File::lastModified));
+            for (File file : existing) files.put(file.getName().substring(0, file.getName().length() - 5), true);
+        }
+        synchronized (files) {
+            evict();
+        }
+    }
+
+    /** Counts misses with SequentialFinder, 256 x 256 tiles, up to a million files, on all cores. */
+    public CachingFinder(Path directory) {
+        this(new SequentialFinder(), directory, 256, 1 << 20, Runtime.getRuntime().availableProcessors());
+    }
+
+    public AbstractMap<Integer, Integer> countAmongiByColour(Image img) {
+        int tilesX = (img.width + tileSize - 1) / tileSize, tilesY = (img.height + tileSize - 1) / tileSize;
+        return forkJoinPool.invoke(new CachedTilesTaskFJ(img, tilesX, 0, tilesX * tilesY)).asMap();
+    }
+
+    /** Number of tiles found in the cache so far. */
+    public long hits() {
+        return hits.get();
+    }
+
+    /** Number of tiles counted so far because they were not in the cache. */
+    public long misses() {
+        return misses.get();
+    }
+
+    class CachedTilesTaskFJ extends RecursiveTask<ColourHistogram> {
+        private final Image img;
+        private final int tilesX;
+        private final int from, to; // Tile indices, row-major
+
+        CachedTilesTaskFJ(Image img, int tilesX, int from, int to) {
+            this.img = img;
+            this.tilesX = tilesX;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected ColourHistogram compute() {
+            if (to - from <= LEAF_TILES) {
+                ColourHistogram counts = new ColourHistogram();
+                int[] pixels = new int[0]; // Reused for the tiles of this leaf
+                for (int i = from; i < to; i++) {
+                    int x1 = (i % tilesX) * tileSize, y1 = (i / tilesX) * tileSize;
+                    pixels = countTile(img, x1, (int) Math.min((long) x1 + tileSize, img.width),
+                            y1, (int) Math.min((long) y1 + tileSize, img.height), counts, pixels);
+                }
+                return counts;
+            }
+            int pivot = (from + to) >>> 1;
+            CachedTilesTaskFJ first = new CachedTilesTaskFJ(img, tilesX, from, pivot);
+            CachedTilesTaskFJ second = new CachedTilesTaskFJ(img, tilesX, pivot, to);
+            first.fork();
+            ColourHistogram secondResult = second.compute();
+            return ColourHistogram.merge(first.join(), secondResult);
+        }
+    }
+
+    // Adds the counts of the anchors in [x1, x2) x [y1, y2) to counts, from the cache if possible. Copies the tile and
+    // its halo into pixels if it is large enough, and otherwise into a new array, which it returns for the next tile.
+    private int[] countTile(Image img, int x1, int x2, int y1, int y2, ColourHistogram counts, int[] pixels) {
+        int sx1 = Math.max(0, x1 - ShardCoordinator.HALO_LEFT), sx2 = (int) Math.min((long) x2 + ShardCoordinator.HALO_RIGHT, img.width);
+        int sy1 = Math.max(0, y1 - ShardCoordinator.HALO_ABOVE), sy2 = (int) Math.min((long) y2 + ShardCoordinator.HALO_BELOW, img.height);
+        int width = sx2 - sx1, height = sy2 - sy1;
+        if (pixels.length < width * height) pixels = new int[width * height];
+        for (int y = sy1; y < sy2; y++) img.getRow(y, sx1, width, pixels, (y - sy1) * width);
+
+        String key = key(pixels, width * height, width, height, x1 - sx1, x2 - sx1, y1 - sy1, y2 - sy1);
+        int[] entry = lookup(key);
+        if (entry != null) {
+            hits.incrementAndGet();
+        } else {
+            misses.incrementAndGet();
+            Image tile = new Image(width, height, pixels, Image.Layout.ROW_MAJOR);
+            AbstractMap<Integer, Integer> owned = ShardWorker.countOwned(finder, tile, x1 - sx1, x2 - sx1, y1 - sy1, y2 - sy1);
+            entry = new int[2 * owned.size()];
+            int j = 0;
+            for (Map.Entry<Integer, Integer> e : owned.entrySet()) {
+                entry[j++] = e.getKey();
+                entry[j++] = e.getValue();
+            }
+            store(key, entry);
+        }
+        for (int j = 0; j < entry.length; j += 2) counts.add(entry[j], entry[j + 1]);
+        return pixels;
+    }
+
+    /** Returns the 128-bit hash of the first n pixels, a tile with its halo, as 32 hex digits. */
+    static String key(int[] pixels, int n, int width, int height, int x1, int x2, int y1, int y2) {
+        // Four independent multiply-rotate lanes, like the inner loop of xxHash, so that their multiplications
+        // overlap; every pair of pixels goes into one lane, and the lanes are combined with a final avalanche.
+        long h0 = 0x9E3779B97F4A7C15L ^ width, h1 = 0xC2B2AE3D27D4EB4FL ^ height;
+        long h2 = 0x165667B19E3779F9L ^ (((long) x1 << 32) | x2), h3 = 0x27D4EB2F165667C5L ^ (((long) y1 << 32) | y2);
+        int i = 0;
+        for (; i + 7 < n; i += 8) {
+            h0 = mix(h0, ((long) pixels[i] << 32) | (pixels[i + 1] & 0xFFFFFFFFL));
+            h1 = mix(h1, ((long) pixels[i + 2] << 32) | (pixels[i + 3] & 0xFFFFFFFFL));
+            h2 = mix(h2, ((long) pixels[i + 4] << 32) | (pixels[i + 5] & 0xFFFFFFFFL));
+            h3 = mix(h3, ((long) pixels[i + 6] << 32) | (pixels[i + 7] & 0xFFFFFFFFL));
+        }
+        for (; i < n; i++) h0 = mix(h0, pixels[i]);
+        long a = avalanche(h0 + Long.rotateLeft(h1, 17) + n), b = avalanche(h2 + Long.rotateLeft(h3, 17));
+        return String.format("%016x%016x", avalanche(a ^ Long.rotateLeft(b, 32)), avalanche(b + a));
+    }
+
+    private static long mix(long h, long v) {
+        return Long.rotateLeft(h ^ (v * 0x87C37B91114253D5L), 31) * 0x4CF5AD432745937FL;
+    }
+
+    private static long avalanche(long h) {
+        h ^= h >>> 33;
+        h *= 0xFF51AFD7ED558CCDL;
+        h ^= h >>> 33;
+        h *= 0xC4CEB9FE1A85EC53L;
+        return h ^ (h >>> 33);
+    }
+
+    // Returns the entry of key from memory or disk, or null.
+    private int[] lookup(String key) {
+        int[] cached;
+        synchronized (memory) {
+            cached = memory.get(key);
+        }
+        synchronized (files) {
+            boolean onDisk = files.get(key) != null; // Also moves the key to the end of the LRU order
+            if (cached != null) return cached;
+            if (!onDisk) return null;
+        }
+        File file = file(key);
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            int[] entry = new int[2 * in.readInt()];
+            for (int j = 0; j < entry.length; j++) entry[j] = in.readInt();
+            file.setLastModified(System.currentTimeMillis()); // Keeps the LRU order across runs
+            synchronized (memory) {
+                memory.put(key, entry);
+            }
+            return entry;
+        } catch (IOException e) {
+            return null; // Evicted or deleted meanwhile: count the tile again
+        }
+    }
+
+    // Puts an entry into memory and onto disk, and deletes the least recently used files beyond maxFiles.
+    private void store(String key, int[] entry) {
+        synchronized (memory) {
+            memory.put(key, entry);
+        }
+        File file = file(key);
+        File tmp = new File(directory.toFile(), key + "." + Thread.currentThread().getId() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)))) {
+            out.writeInt(entry.length / 2);
+            for (int value : entry) out.writeInt(value);
+        } catch (IOException e) {
+            tmp.delete();
+            return; // The cache is only an optimisation; the counts are still correct
+        }
+        try {
+            // Readers either see no file or a complete one.
+            try {
+                Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.ATOMIC_MOVE);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            }
+        } catch (IOException e) {
+            tmp.delete();
+            return;
+        }
+        synchronized (files) {
+            files.put(key, true);
+            evict();
+        }
+    }
+
+    // Deletes the least recently used files beyond maxFiles. Called with the lock on files.
+    private void evict() {
+        Iterator<String> eldest = files.keySet().iterator();
+        while (files.size() > maxFiles) {
+            file(eldest.next()).delete();
+            eldest.remove();
+        }
+    }
+
+    private File file(String key) {
+        return new File(directory.toFile(), key + ".hist");
+    }
+
+    /** Shuts down the worker threads. The files stay, for the next CachingFinder on the same directory. */
+    @Override
+    public void close() {
+        forkJoinPool.shutdown();
+    }
+}
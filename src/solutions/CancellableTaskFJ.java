@@ -0,0 +1,77 @@
+package solutions;
+
+import data.ColourHistogram;
+import data.Image;
+import data.Metrics;
+
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * ParallelFinderAdaptiveTaskFJ that stops when its CancellationToken is cancelled. The token is checked before a task
+ * splits and by leaves between bands of TileScanner.DEFAULT.tileHeight rows, never inside the scan itself, so a
+ * band costs one volatile read (plus one clock read if the token has a deadline) on top of thousands of anchors.
+ * Cancelled tasks return what they have scanned so far.
+ */
+class CancellableTaskFJ extends RecursiveTask<CancellableTaskFJ.Result> {
+    /** Counts of the anchors scanned by a task, and how many anchors that were. */
+    static final class Result {
+        final ColourHistogram counts;
+        final long scanned;
+
+        Result(ColourHistogram counts, long scanned) {
+            this.counts = counts;
+            this.scanned = scanned;
+        }
+    }
+
+    private final int x1, x2, y1, y2;
+    private final Image img;
+    private final long leafArea; // Target number of anchors per leaf
+    private final CancellationToken token;
+
+    CancellableTaskFJ(Image img, int x1, int x2, int y1, int y2, long leafArea, CancellationToken token) {
+        this.img = img;
+        this.x1 = x1;
+        this.x2 = x2;
+        this.y1 = y1;
+        this.y2 = y2;
+        this.leafArea = leafArea;
+        this.token = token;
+    }
+
+    @Override
+    protected Result compute() {
+        if (token.isCancelled()) return new Result(new ColourHistogram(), 0);
+        int w = x2 - x1, h = y2 - y1;
+        if (ParallelFinderAdaptiveTaskFJ.isLeaf(w, h, leafArea)) {
+            ColourHistogram colourCounts = new ColourHistogram();
+            Metrics.LeafEvent event = Metrics.ENABLED ? Metrics.beginLeaf() : null;
+            int band = TileScanner.DEFAULT.tileHeight;
+            int y = y1;
+            while (y < y2) {
+                int end = (int) Math.min((long) y + band, y2);
+                TileScanner.DEFAULT.scan(img, x1, x2, y, end, colourCounts);
+                y = end;
+                if (token.isCancelled()) break;
+            }
+            if (Metrics.ENABLED) Metrics.endLeaf(event, x1, x2, y1, y); // The part that was scanned
+            return new Result(colourCounts, (long) w * (y - y1));
+        }
+
+        CancellableTaskFJ first, second;
+        if (w >= h) {
+            int pivotX = (x1 + x2) / 2;
+            first = new CancellableTaskFJ(img, x1, pivotX, y1, y2, leafArea, token);
+            second = new CancellableTaskFJ(img, pivotX, x2, y1, y2, leafArea, token);
+        } else {
+            int pivotY = (y1 + y2) / 2;
+            first = new CancellableTaskFJ(img, x1, x2, y1, pivotY, leafArea, token);
+            second = new CancellableTaskFJ(img, x1, x2, pivotY, y2, leafArea, token);
+        }
+        first.fork();
+        Result secondResult = second.compute();
+        Result firstResult = first.join();
+        return new Result(ColourHistogram.merge(firstResult.counts, secondResult.counts),
+                firstResult.scanned + secondResult.scanned);
+    }
+}
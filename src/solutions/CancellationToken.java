@@ -0,0 +1,69 @@
+package solutions;
+
+import java.time.Duration;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Asks a running count to stop early, see ParallelFinderSubtotals.countAmongiByColour(Image, CancellationToken).
+ * A token is cancelled by cancel(), e.g. from a request handler whose client went away, when its deadline passes, or
+ * after a number of checks, which bounds the work of a count independently of the speed of the machine.
+ * Tokens are not reused: once cancelled, a token stays cancelled.
+ */
+public final class CancellationToken {
+    /** Token that is never cancelled. */
+    public static final CancellationToken NONE = new CancellationToken(false, 0, null);
+
+    private final boolean hasDeadline;
+    private final long deadline; // System.nanoTime() at which the token cancels itself
+    private final AtomicLong checksLeft; // isCancelled() calls that return false, null for no limit
+    private volatile boolean cancelled;
+
+    private CancellationToken(boolean hasDeadline, long deadline, AtomicLong checksLeft) {
+        this.hasDeadline = hasDeadline;
+        this.deadline = deadline;
+        this.checksLeft = checksLeft;
+    }
+
+    /** Returns a token that is only cancelled by cancel(). */
+    public static CancellationToken create() {
+        return new CancellationToken(false, 0, null);
+    }
+
+    /**
+     * Returns a token that cancels itself after isCancelled() has returned false checks times, from any thread.
+     * A count checks its token before every split and after every band of rows, so this stops it after a fixed amount
+     * of work, on any machine.
+     */
+    public static CancellationToken afterChecks(long checks) {
+        return new CancellationToken(false, 0, new AtomicLong(checks));
+    }
+
+    /** Returns a token that cancels itself once timeout has passed from now. */
+    public static CancellationToken withTimeout(Duration timeout) {
+        if (timeout.isNegative() || timeout.isZero()) {
+            CancellationToken token = create();
+            token.cancel();
+            return token;
+        }
+        if (timeout.compareTo(Duration.ofDays(100 * 365)) > 0) return create(); // Never, for all practical purposes
+        return new CancellationToken(true, System.nanoTime() + timeout.toNanos(), null);
+    }
+
+    /** Cancels the token. Has no effect on NONE. */
+    public void cancel() {
+        if (this != NONE) cancelled = true;
+    }
+
+    /** Returns true once cancel() was called, the deadline has passed or the checks are used up. */
+    public boolean isCancelled() {
+        if (cancelled) return true;
+        if (checksLeft != null) {
+            if (checksLeft.getAndDecrement() > 0) return false;
+            cancelled = true;
+            return true;
+        }
+        if (!hasDeadline || System.nanoTime() - deadline < 0) return false;
+        cancelled = true; // Spares later calls the clock read
+        return true;
+    }
+}
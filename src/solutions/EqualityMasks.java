@@ -0,0 +1,77 @@
+package solutions;
+
+import data.Image;
+
+/**
+ * Packed neighbour-equality bitplanes of a strip of rows, one bit per pixel:
+ * right(y) bit x is set iff pixel (x, y) equals pixel (x + 1, y), and down(y) bit x iff it equals pixel (x, y + 1).
+ * Pixels outside the image are never equal, so bit width - 1 of right and the last image row of down are 0.
+ *
+ * Each plane takes 1/32 of the memory of the ARGB rows it is computed from.
+ */
+final class EqualityMasks {
+    final int width;
+    final int words; // Longs per row
+    final int y0, y1; // Rows [y0, y1) are stored
+    private final long[] right, down;
+
+    /** Computes the masks of rows [y0, y1), clamped to the image. */
+    EqualityMasks(Image img, int y0, int y1) {
+        this.width = img.width;
+        this.words = (img.width + 63) >>> 6;
+        this.y0 = Math.max(0, y0);
+        this.y1 = Math.min(img.height, y1);
+        int rows = Math.max(0, this.y1 - this.y0);
+        this.right = new long[rows * words];
+        this.down = new long[rows * words];
+
+        // One extra element per row, so that the inner loop needs no bounds checks; its bit is cleared afterwards.
+        int[] current = new int[width + 1], next = new int[width + 1];
+        if (rows > 0) img.getRow(this.y0, current, 0);
+        long lastBit = width % 64 == 0 ? 1L << 63 : 1L << (width % 64 - 1); // right() of the last pixel
+        for (int y = this.y0; y < this.y1; y++) {
+            boolean hasNext = y + 1 < img.height;
+            if (hasNext) img.getRow(y + 1, next, 0);
+            int base = (y - this.y0) * words;
+            for (int w = 0; w < words; w++) {
+                int x0 = w << 6, n = Math.min(64, width - x0);
+                long r = 0;
+                for (int j = 0; j < n; j++) {
+                    r |= (current[x0 + j] == current[x0 + j + 1] ? 1L : 0L) << j;
+                }
+                right[base + w] = r;
+                if (hasNext) {
+                    long d = 0;
+                    for (int j = 0; j < n; j++) {
+                        d |= (current[x0 + j] == next[x0 + j] ? 1L : 0L) << j;
+                    }
+                    down[base + w] = d;
+                }
+            }
+            right[base + words - 1] &= ~lastBit;
+            int[] swap = current;
+            current = next;
+            next = swap;
+        }
+    }
+
+    /** Bits j = 0..63 are right(y) at x + j; 0 outside the image and outside the stored rows. */
+    long right(int y, int x) {
+        return bits(right, y, x);
+    }
+
+    /** Bits j = 0..63 are down(y) at x + j; 0 outside the image and outside the stored rows. */
+    long down(int y, int x) {
+        return bits(down, y, x);
+    }
+
+    private long bits(long[] plane, int y, int x) {
+        if (y < y0 || y >= y1) return 0;
+        int base = (y - y0) * words;
+        int w = x >> 6, offset = x & 63;
+        long lo = w >= 0 && w < words ? plane[base + w] : 0;
+        if (offset == 0) return lo;
+        long hi = w + 1 >= 0 && w + 1 < words ? plane[base + w + 1] : 0;
+        return (lo >>> offset) | (hi << (64 - offset));
+    }
+}
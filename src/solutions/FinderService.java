@@ -0,0 +1,122 @@
+package solutions;
+
+import data.Image;
+
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Long-lived service for counting amongi on many images, e.g. a batch of canvas snapshots.
+ *
+ * It owns one ForkJoinPool, shared by all images, instead of a pool per finder. Images given by path are decoded by a
+ * single loader thread while the pool counts the previous image, so decoding image N+1 overlaps detection of image N.
+ * At most maxDecoded images are held in memory at once; the loader waits for a count to finish before decoding more.
+ * Close the service to stop its threads.
+ */
+public class FinderService implements AutoCloseable {
+    final ForkJoinPool forkJoinPool;
+    final ParallelFinderSubtotals finder; // Adaptive finder running on forkJoinPool
+    final ExecutorService loader; // Decodes images, one at a time
+    final Semaphore decoded; // Permits for images that are decoded but not yet counted
+    volatile boolean closed = false;
+
+    public FinderService(int p, int maxDecoded) {
+        this.forkJoinPool = new ForkJoinPool(p);
+        this.finder = new ParallelFinderSubtotals(forkJoinPool);
+        this.loader = Executors.newSingleThreadExecutor(r -> {
+            Thread thread = new Thread(r, "FinderService-loader");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.decoded = new Semaphore(maxDecoded);
+    }
+
+    /** Uses all cores, with room for one decoded image waiting while another is counted. */
+    public FinderService() {
+        this(Runtime.getRuntime().availableProcessors(), 2);
+    }
+
+    /** Counts one image on the shared pool. */
+    public CompletableFuture<AbstractMap<Integer, Integer>> submit(Image img) {
+        return CompletableFuture.supplyAsync(() -> finder.countAmongiByColour(img), forkJoinPool);
+    }
+
+    /** Counts images that are already in memory; the futures are in the order of the list. */
+    public List<CompletableFuture<AbstractMap<Integer, Integer>>> countAll(List<Image> images) {
+        List<CompletableFuture<AbstractMap<Integer, Integer>>> results = new ArrayList<>(images.size());
+        for (Image img : images) {
+            results.add(submit(img));
+        }
+        return results;
+    }
+
+    /**
+     * Decodes and counts the images at the given paths; the futures are in the order of the stream and are returned
+     * right away. An exception while decoding one path completes its future exceptionally and does not affect the others.
+     */
+    public List<CompletableFuture<AbstractMap<Integer, Integer>>> countAllPaths(Stream<String> paths) {
+        List<String> pathList = paths.collect(Collectors.toList());
+        List<CompletableFuture<AbstractMap<Integer, Integer>>> results = new ArrayList<>(pathList.size());
+        for (String path : pathList) {
+            CompletableFuture<AbstractMap<Integer, Integer>> result = new CompletableFuture<>();
+            results.add(result);
+            loader.execute(() -> load(path, result));
+        }
+        return results;
+    }
+
+    private void load(String path, CompletableFuture<AbstractMap<Integer, Integer>> result) {
+        if (closed) {
+            result.completeExceptionally(new CancellationException("FinderService closed"));
+            return;
+        }
+        try {
+            decoded.acquire();
+        } catch (InterruptedException e) { // close() interrupts the loader
+            result.completeExceptionally(new CancellationException("FinderService closed"));
+            return;
+        }
+        Image img;
+        try {
+            img = new Image(path);
+        } catch (RuntimeException e) {
+            decoded.release();
+            result.completeExceptionally(closed ? new CancellationException("FinderService closed") : e);
+            return;
+        }
+        CompletableFuture<AbstractMap<Integer, Integer>> counted;
+        try {
+            if (closed) throw new RejectedExecutionException("FinderService closed");
+            counted = submit(img);
+        } catch (RejectedExecutionException e) { // close() ran during the decode and shut the pool down
+            decoded.release();
+            result.completeExceptionally(new CancellationException("FinderService closed"));
+            return;
+        }
+        counted.whenComplete((counts, error) -> {
+            decoded.release(); // img can be collected once the count is done
+            if (error != null) result.completeExceptionally(error);
+            else result.complete(counts);
+        });
+    }
+
+    /** Stops the loader and the pool. Images that have not been decoded yet are cancelled. */
+    @Override
+    public void close() {
+        closed = true;
+        for (Runnable pending : loader.shutdownNow()) {
+            pending.run(); // Only cancels its future, as closed is set
+        }
+        forkJoinPool.shutdown();
+    }
+}
@@ -0,0 +1,189 @@
+package solutions;
+
+import data.Amongus;
+import data.ColourHistogram;
+import data.Image;
+
+import java.util.AbstractMap;
+import java.util.Arrays;
+
+/**
+ * Keeps the amongus counts of a live canvas up to date under pixel edits.
+ *
+ * The whole image is scanned once; after that, a batch of (x, y, colour) edits only re-runs Amongus.detect for the
+ * anchors whose neighbourhood contains an edited pixel, so an update costs O(edits) instead of O(image).
+ * detect(x, y) reads rows y - 1 .. y + 5 and columns x - 1 .. x + 4, so an edit at (ex, ey) can only change the
+ * anchors in [ex - 4, ex + 1] x [ey - 5, ey + 1].
+ *
+ * Edits are written into the image. Read-only (mapped or palette-indexed) images are copied to the heap first.
+ */
+public class IncrementalFinder {
+    static final int LEFT = 4, RIGHT = 1, ABOVE = 5, BELOW = 1; // Anchors affected by an edit, relative to it
+
+    final Image img;
+    final ColourHistogram counts = new ColourHistogram();
+    final AnchorMap anchors = new AnchorMap(); // Index of each detected anchor -> its body colour
+    private int[] affected = new int[64];      // Scratch for the anchor indices of one batch
+
+    public IncrementalFinder(Image img) {
+        this.img = img.isWritable() ? img : heapCopy(img);
+        TileScanner.DEFAULT.scan(this.img, 0, img.width, 0, img.height, (x, y, colour) -> {
+            anchors.put(y * img.width + x, colour);
+            counts.increment(colour);
+        });
+    }
+
+    private static Image heapCopy(Image img) {
+        int[] pixels = new int[Math.multiplyExact(img.width, img.height)];
+        for (int y = 0; y < img.height; y++) {
+            img.getRow(y, pixels, y * img.width);
+        }
+        return new Image(img.width, img.height, pixels);
+    }
+
+    /** Returns the image the edits are applied to. */
+    public Image image() {
+        return img;
+    }
+
+    /** Returns a live, read-only view of the current counts per colour. */
+    public AbstractMap<Integer, Integer> counts() {
+        return counts.asMap();
+    }
+
+    /** Returns the number of amongi currently detected. */
+    public int size() {
+        return anchors.size();
+    }
+
+    /** Sets one pixel and updates the counts. */
+    public void update(int x, int y, int colour) {
+        update(new int[]{x}, new int[]{y}, new int[]{colour}, 1);
+    }
+
+    /** Applies the first n edits (xs[i], ys[i]) := colours[i], in order, then updates the counts once. */
+    public void update(int[] xs, int[] ys, int[] colours, int n) {
+        update(xs, ys, colours, 0, n);
+    }
+
+    /** Applies the edits from .. to - 1 of the arrays, in order, then updates the counts once. */
+    public void update(int[] xs, int[] ys, int[] colours, int from, int to) {
+        int width = img.width, height = img.height;
+        int maxAnchors = (to - from) * (LEFT + RIGHT + 1) * (ABOVE + BELOW + 1);
+        if (affected.length < maxAnchors) affected = new int[Math.max(maxAnchors, affected.length * 2)];
+
+        // Collect the affected anchors and apply the edits; anchors can only start where detect's bounds allow.
+        int k = 0;
+        for (int i = from; i < to; i++) {
+            int ex = xs[i], ey = ys[i];
+            if (ex < 0 || ex >= width || ey < 0 || ey >= height)
+                throw new IllegalArgumentException("Edit (" + ex + ", " + ey + ") is outside the image");
+            img.setColor(ex, ey, colours[i]);
+            int ax1 = Math.max(0, ex - LEFT), ax2 = Math.min(width - 4, ex + RIGHT);
+            int ay1 = Math.max(0, ey - ABOVE), ay2 = Math.min(height - 4, ey + BELOW);
+            for (int ay = ay1; ay <= ay2; ay++) {
+                for (int ax = ax1; ax <= ax2; ax++) {
+                    affected[k++] = ay * width + ax;
+                }
+            }
+        }
+
+        // Re-detect every affected anchor once, against the image with all edits applied.
+        Arrays.sort(affected, 0, k);
+        for (int i = 0; i < k; i++) {
+            int anchor = affected[i];
+            if (i > 0 && anchor == affected[i - 1]) continue;
+            int slot = anchors.slotOf(anchor);
+            if (slot >= 0) {
+                counts.subtract(anchors.valueAt(slot), 1);
+                anchors.removeAt(slot);
+            }
+            int ax = anchor % width, ay = anchor / width;
+            if (Amongus.detect(ax, ay, img)) {
+                int colour = Amongus.bodyColor(ax, ay, img);
+                anchors.put(anchor, colour);
+                counts.increment(colour);
+            }
+        }
+    }
+
+    /** Open-addressing map from non-negative pixel index to colour, without boxing. */
+    static final class AnchorMap {
+        static final int EMPTY = -1; // Key of an empty slot
+
+        private int[] keys = new int[16];
+        private int[] values = new int[16];
+        private int size = 0;
+        private int shift = 28; // 32 - log2(capacity)
+
+        AnchorMap() {
+            Arrays.fill(keys, EMPTY);
+        }
+
+        int size() {
+            return size;
+        }
+
+        private int slot(int key) {
+            return (key * 0x9E3779B9) >>> shift;
+        }
+
+        void put(int key, int value) {
+            int mask = keys.length - 1;
+            for (int i = slot(key); ; i = (i + 1) & mask) {
+                if (keys[i] == EMPTY) {
+                    keys[i] = key;
+                    values[i] = value;
+                    if (++size * 2 > keys.length) grow();
+                    return;
+                }
+                if (keys[i] == key) {
+                    values[i] = value;
+                    return;
+                }
+            }
+        }
+
+        /** Returns the slot holding key, or -1 if the key is not present. */
+        int slotOf(int key) {
+            int mask = keys.length - 1;
+            for (int i = slot(key); keys[i] != EMPTY; i = (i + 1) & mask) {
+                if (keys[i] == key) return i;
+            }
+            return -1;
+        }
+
+        int valueAt(int i) {
+            return values[i];
+        }
+
+        /** Removes the entry in slot i, see slotOf. */
+        void removeAt(int i) {
+            int mask = keys.length - 1;
+            keys[i] = EMPTY;
+            size--;
+            // Backward-shift deletion, as in ColourHistogram.subtract.
+            for (int j = (i + 1) & mask; keys[j] != EMPTY; j = (j + 1) & mask) {
+                int home = slot(keys[j]);
+                boolean reachable = i <= j ? i < home && home <= j : i < home || home <= j;
+                if (reachable) continue;
+                keys[i] = keys[j];
+                values[i] = values[j];
+                keys[j] = EMPTY;
+                i = j;
+            }
+        }
+
+        private void grow() {
+            int[] oldKeys = keys, oldValues = values;
+            keys = new int[oldKeys.length * 2];
+            values = new int[oldKeys.length * 2];
+            Arrays.fill(keys, EMPTY);
+            shift--;
+            size = 0;
+            for (int i = 0; i < oldKeys.length; i++) {
+                if (oldKeys[i] != EMPTY) put(oldKeys[i], oldValues[i]);
+            }
+        }
+    }
+}
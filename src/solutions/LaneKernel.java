@@ -0,0 +1,69 @@
+package solutions;
+
+import data.Amongus;
+import data.Image;
+
+/**
+ * Data-parallel version of the row-3 check: evaluates 64 anchors per step on the packed row-major pixel array.
+ *
+ * For a row r, bit j of an "equality word" starting at k says whether pixels k + j and k + j + 1 of r are equal.
+ * An anchor at x passes the row-3 check iff, in row y + 2, eq(x - 1) is false, eq(x), eq(x + 1), eq(x + 2) are true
+ * and eq(x + 3) is false, which for 64 neighbouring anchors is a handful of shifts and ANDs on two such words.
+ * The remaining checks run scalar (Amongus.detectCandidate) on the few anchors that survive.
+ */
+class LaneKernel {
+    static final int LANES = 64;
+
+    /** Visits the amongi anchored in [x1, x2) on row y of an on-heap row-major image. */
+    static void scanRow(Image img, int[] pixels, int x1, int x2, int y, TileScanner.HitVisitor visitor) {
+        scanRow(img, pixels, (y + 2) * img.width, img.width, x1, x2, y, visitor);
+    }
+
+    /**
+     * Visits the amongi anchored in [x1, x2) on row y of any image, by first copying the part of row y + 2 that the
+     * check reads, [x1 - 1, x2 + 4), into scratch (of at least x2 - x1 + 5 elements).
+     */
+    static void scanRowCopy(Image img, int[] scratch, int x1, int x2, int y, TileScanner.HitVisitor visitor) {
+        int from = Math.max(0, x1 - 1);
+        int end = Math.min(img.width, x2 + 4);
+        img.getRow(y + 2, from, end - from, scratch, 0);
+        scanRow(img, scratch, -from, end, x1, x2, y, visitor);
+    }
+
+    /** pixels[base + x] is pixel x of row y + 2, for x in [x1 - 1, end). */
+    private static void scanRow(Image img, int[] pixels, int base, int end, int x1, int x2, int y, TileScanner.HitVisitor visitor) {
+        long lo = eqBits(pixels, base, end, x1 - 1);
+        for (int x0 = x1; x0 < x2; x0 += LANES) {
+            // lo covers eq(x0 - 1 .. x0 + 62), hi covers eq(x0 + 63 .. x0 + 126).
+            long hi = eqBits(pixels, base, end, x0 + LANES - 1);
+            long mask = ~lo & shift(lo, hi, 1) & shift(lo, hi, 2) & shift(lo, hi, 3) & ~shift(lo, hi, 4);
+            int lanes = x2 - x0;
+            if (lanes < LANES) mask &= (1L << lanes) - 1;
+            while (mask != 0) {
+                int x = x0 + Long.numberOfTrailingZeros(mask);
+                mask &= mask - 1;
+                if (Amongus.detectCandidate(x, y, img)) {
+                    visitor.hit(x, y, pixels[base + x]);
+                }
+            }
+            lo = hi;
+        }
+    }
+
+    /** Bits j = 0..63 of the result are eq(from + j); pixels before 0 or from end on are never equal. */
+    static long eqBits(int[] pixels, int base, int end, int from) {
+        int jStart = Math.max(0, -from);
+        int jEnd = Math.min(LANES, end - 1 - from);
+        long bits = 0;
+        for (int j = jStart; j < jEnd; j++) {
+            int i = base + from + j;
+            bits |= (pixels[i] == pixels[i + 1] ? 1L : 0L) << j;
+        }
+        return bits;
+    }
+
+    /** Bits 0..63 of the 128-bit value (hi, lo), shifted right by k (0 < k < 64). */
+    private static long shift(long lo, long hi, int k) {
+        return (lo >>> k) | (hi << (LANES - k));
+    }
+}
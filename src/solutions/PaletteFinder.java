@@ -0,0 +1,79 @@
+package solutions;
+
+import data.ColourHistogram;
+import data.Image;
+import data.PalettedImage;
+
+import java.util.AbstractMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * Counts amongi on a palette-indexed image, with a dense long[paletteSize] counter per Fork/Join leaf instead of a
+ * hash map. Images with more than PalettedImage.MAX_COLOURS colours are counted on their ARGB pixels instead.
+ * Pass an image that has been quantized once (PalettedImage.quantize) to avoid quantizing it on every call.
+ */
+public class PaletteFinder implements AmongiFinder, AutoCloseable {
+    final int p;  // Number of threads
+    final int Ty; // Sequential threshold (number of rows) for the y-axis
+    final ForkJoinPool forkJoinPool;
+
+    public PaletteFinder(int p, int Ty) {
+        this.p = p;
+        this.Ty = Ty;
+        this.forkJoinPool = new ForkJoinPool(p);
+    }
+
+    /** Shuts down the worker threads. */
+    @Override
+    public void close() {
+        forkJoinPool.shutdown();
+    }
+
+    public AbstractMap<Integer, Integer> countAmongiByColour(Image img) {
+        PalettedImage paletted = PalettedImage.quantize(img);
+        if (paletted == null) {
+            // Palette overflow: fall back to counting full ARGB colours.
+            return forkJoinPool.invoke(new ParallelFinderSubtotalsTaskFJ(img, 0, img.width, 0, img.height, Integer.MAX_VALUE, Ty)).asMap();
+        }
+
+        long[] counts = forkJoinPool.invoke(new PaletteTaskFJ(paletted, 0, paletted.height, Ty));
+        ColourHistogram colourCounts = new ColourHistogram(counts.length);
+        for (int i = 0; i < counts.length; i++) {
+            if (counts[i] > 0) colourCounts.add(paletted.paletteColour(i), Math.toIntExact(counts[i]));
+        }
+        return colourCounts.asMap();
+    }
+
+    static class PaletteTaskFJ extends RecursiveTask<long[]> {
+        private final PalettedImage img;
+        private final int y1, y2;
+        private final int sequential_threshold_y;
+
+        PaletteTaskFJ(PalettedImage img, int y1, int y2, int sequential_threshold_y) {
+            this.img = img;
+            this.y1 = y1;
+            this.y2 = y2;
+            this.sequential_threshold_y = sequential_threshold_y;
+        }
+
+        @Override
+        protected long[] compute() {
+            if (y2 - y1 <= sequential_threshold_y) {
+                long[] counts = new long[img.paletteSize()];
+                TileScanner.DEFAULT.scan(img, 0, img.width, y1, y2, (x, y, colour) -> counts[colour]++);
+                return counts;
+            }
+            int pivotY = (y1 + y2) / 2;
+            PaletteTaskFJ top = new PaletteTaskFJ(img, y1, pivotY, sequential_threshold_y);
+            PaletteTaskFJ bottom = new PaletteTaskFJ(img, pivotY, y2, sequential_threshold_y);
+            top.fork();
+            long[] bottomResult = bottom.compute();
+            long[] topResult = top.join();
+            for (int i = 0; i < topResult.length; i++) {
+                topResult[i] += bottomResult[i];
+            }
+            return topResult;
+        }
+    }
+}
@@ -0,0 +1,73 @@
+package solutions;
+
+import data.ColourHistogram;
+import data.Image;
+import data.Metrics;
+
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * Subtotals task that needs no thresholds: it always halves the longer side of its region, and stops splitting
+ * once a region is small compared to the image and the number of threads, or earlier when the worker already has
+ * enough queued tasks for the others to steal (ForkJoinTask.getSurplusQueuedTaskCount()).
+ */
+class ParallelFinderAdaptiveTaskFJ extends RecursiveTask<ColourHistogram> {
+    static final int LEAVES_PER_THREAD = 16; // Enough leaves for load balancing when some regions are slower
+    static final int MIN_LEAF_AREA = 1 << 14; // Below this, task and histogram overhead outweighs the scan
+    static final int MIN_SIDE = 8;            // Keeps leaves from becoming slivers of a few pixels
+    static final int SURPLUS = 3;             // Queued tasks beyond which a worker stops splitting early
+
+    private final int x1, x2, y1, y2;
+    private final Image img;
+    private final long leafArea; // Target number of anchors per leaf
+
+    ParallelFinderAdaptiveTaskFJ(Image img, int x1, int x2, int y1, int y2, long leafArea) {
+        this.img = img;
+        this.x1 = x1;
+        this.x2 = x2;
+        this.y1 = y1;
+        this.y2 = y2;
+        this.leafArea = leafArea;
+    }
+
+    /** Returns the target leaf area for scanning img with p threads. */
+    static long leafArea(Image img, int p) {
+        return Math.max(MIN_LEAF_AREA, (long) img.width * img.height / ((long) p * LEAVES_PER_THREAD));
+    }
+
+    /** Returns true if the running task should scan its w x h region instead of splitting it, see the class comment. */
+    static boolean isLeaf(int w, int h, long leafArea) {
+        long area = (long) w * h;
+        boolean small = area <= leafArea || Math.max(w, h) < 2 * MIN_SIDE;
+        // Under 4 leaves' worth of work, stop splitting once more than SURPLUS tasks are queued for others to steal.
+        boolean busy = area <= 4 * leafArea && getSurplusQueuedTaskCount() > SURPLUS;
+        return small || busy;
+    }
+
+    @Override
+    protected ColourHistogram compute() {
+        int w = x2 - x1, h = y2 - y1;
+        if (isLeaf(w, h, leafArea)) {
+            ColourHistogram colourCounts = new ColourHistogram();
+            Metrics.LeafEvent event = Metrics.ENABLED ? Metrics.beginLeaf() : null;
+            TileScanner.DEFAULT.scan(img, x1, x2, y1, y2, colourCounts);
+            if (Metrics.ENABLED) Metrics.endLeaf(event, x1, x2, y1, y2);
+            return colourCounts;
+        }
+
+        ParallelFinderAdaptiveTaskFJ first, second;
+        if (w >= h) {
+            int pivotX = (x1 + x2) / 2;
+            first = new ParallelFinderAdaptiveTaskFJ(img, x1, pivotX, y1, y2, leafArea);
+            second = new ParallelFinderAdaptiveTaskFJ(img, pivotX, x2, y1, y2, leafArea);
+        } else {
+            int pivotY = (y1 + y2) / 2;
+            first = new ParallelFinderAdaptiveTaskFJ(img, x1, x2, y1, pivotY, leafArea);
+            second = new ParallelFinderAdaptiveTaskFJ(img, x1, x2, pivotY, y2, leafArea);
+        }
+        first.fork();
+        ColourHistogram secondResult = second.compute();
+        ColourHistogram firstResult = first.join();
+        return ColourHistogram.merge(firstResult, secondResult);
+    }
+}
@@ -1,30 +1,54 @@
 package solutions;
 
+import data.ColourHistogram;
 import data.Image;
 
+import java.util.AbstractMap;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.LongAdder;
 
-public class ParallelFinderGlobalHashMap implements AmongiFinder {
+public class ParallelFinderGlobalHashMap implements AmongiFinder, AutoCloseable {
     final int p; // The number of cores used by the Fork/Join Framework.
 
     final int T; // The sequential threshold for the x-axis.
 
     final ForkJoinPool forkJoinPool;
 
+    final boolean ownsPool; // Whether close() shuts the pool down
+
 
     public ParallelFinderGlobalHashMap(int p, int T) {
         this.p = p;
         this.T = T;
         // Hint: initialise the Fork/Join framework here as well.
         this.forkJoinPool = new ForkJoinPool(p);
+        this.ownsPool = true;
+    }
+
+    /** Runs on an existing pool, e.g. the one of a FinderService. close() leaves the pool running. */
+    public ParallelFinderGlobalHashMap(ForkJoinPool pool, int T) {
+        this.p = pool.getParallelism();
+        this.T = T;
+        this.forkJoinPool = pool;
+        this.ownsPool = false;
     }
 
-    public ConcurrentHashMap<Integer, Integer> countAmongiByColour(Image img) {
+    public AbstractMap<Integer, Integer> countAmongiByColour(Image img) {
 
-        ConcurrentHashMap<Integer, Integer> globalMap = new ConcurrentHashMap<>();
-        ParallelFinderGlobalHashMapTaskFJ task = new ParallelFinderGlobalHashMapTaskFJ(img, 0, img.width, 100, globalMap);
+        // One shared map, but each colour has its own LongAdder, so workers never wait for a lock to count.
+        ConcurrentHashMap<Integer, LongAdder> globalMap = new ConcurrentHashMap<>();
+        ParallelFinderGlobalHashMapTaskFJ task = new ParallelFinderGlobalHashMapTaskFJ(img, 0, img.width, T, globalMap);
         forkJoinPool.invoke(task);
-        return globalMap;
+
+        ColourHistogram colourCounts = new ColourHistogram(globalMap.size());
+        globalMap.forEach((colour, count) -> colourCounts.add(colour, count.intValue()));
+        return colourCounts.asMap();
+    }
+
+    /** Shuts down the worker threads, if this finder created them. */
+    @Override
+    public void close() {
+        if (ownsPool) forkJoinPool.shutdown();
     }
 }
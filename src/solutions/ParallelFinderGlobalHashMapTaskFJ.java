@@ -1,16 +1,15 @@
 package solutions;
 
-import data.Amongus;
 import data.Image;
 
-import java.util.HashMap;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.LongAdder;
 
 public class ParallelFinderGlobalHashMapTaskFJ extends RecursiveAction {
-    private final int x1; private final int x2; private final Image img; private final int sequential_threshold; private final ConcurrentHashMap<Integer, Integer> globalMap;// arguments
+    private final int x1; private final int x2; private final Image img; private final int sequential_threshold; private final ConcurrentHashMap<Integer, LongAdder> globalMap;// arguments
 
-    ParallelFinderGlobalHashMapTaskFJ(Image construct_img, int construct_x1, int construct_x2, int construct_sequential_threshold, ConcurrentHashMap<Integer, Integer> construct_globalMap) {
+    ParallelFinderGlobalHashMapTaskFJ(Image construct_img, int construct_x1, int construct_x2, int construct_sequential_threshold, ConcurrentHashMap<Integer, LongAdder> construct_globalMap) {
         this.x1 = construct_x1;
         this.x2 = construct_x2;
         this.img = construct_img;
@@ -22,20 +21,12 @@ public class ParallelFinderGlobalHashMapTaskFJ extends RecursiveAction {
     @Override
     protected void compute() { // returns no answer
         if ((x2 - x1) <= sequential_threshold) {
-            for (int x = x1; x < x2; x++) {
-                for (int y = 0; y < img.height; y++) {
-                    if (Amongus.detect(x, y, img)) {
-                        int colour = Amongus.bodyColor(x, y, img);
-                        synchronized (globalMap) { // Make sure that this is "atomic"
-                            if (globalMap.containsKey(colour)) {
-                                globalMap.put(colour, globalMap.get(colour) + 1);
-                            } else {
-                                globalMap.put(colour, 1);
-                            }
-                        }
-                    }
-                }
-            }
+            TileScanner.DEFAULT.scan(img, x1, x2, 0, img.height, (x, y, colour) -> {
+                // get() never locks; computeIfAbsent only runs the first time a colour is seen.
+                LongAdder count = globalMap.get(colour);
+                if (count == null) count = globalMap.computeIfAbsent(colour, c -> new LongAdder());
+                count.increment(); // Striped CAS, contended colours spread over several cells
+            });
             // no return this time
         } else {
             int pivot = (x1 + x2) / 2;
@@ -0,0 +1,163 @@
+package solutions;
+
+import data.ColourHistogram;
+import data.Image;
+import data.Metrics;
+
+import java.util.AbstractMap;
+import java.util.concurrent.CountedCompleter;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Subtotals finder that allocates nothing per leaf. ParallelFinderSubtotals creates two tasks per split and a
+ * histogram per leaf, which with T = Ty = 1 are millions of objects per count.
+ *
+ * Here the image is cut into a flat grid of T x Ty leaves, numbered row-major. One task per thread claims batches of
+ * consecutive leaves from a shared counter until none are left, so faster threads scan more batches, like stealing
+ * does in the recursive tree. Every worker thread counts into its own histogram, indexed by its pool index, which is
+ * kept from one count to the next; the histograms are merged once, at the end of the count. A count allocates the p
+ * tasks and the returned histogram only.
+ *
+ * The histograms belong to the finder, so counts on the same finder run one at a time.
+ */
+public class ParallelFinderPooled implements AmongiFinder, AutoCloseable {
+    static final int ADAPTIVE = 0;          // T and Ty of the adaptive mode
+    static final int BATCHES_PER_THREAD = 16; // Enough batches for load balancing when some regions are slower
+
+    final int p; // Number of threads
+    final int T; // Leaf width
+    final int Ty; // Leaf height
+    final ForkJoinPool forkJoinPool;
+    private final Accumulator[] accumulators; // Per pool index, created by the worker thread on first use
+    private final ColourHistogram overflow = new ColourHistogram(); // Counts of threads without an accumulator
+
+    /** Counts of one worker thread, with the objects a leaf needs, so that scanning a leaf allocates nothing. */
+    private static final class Accumulator {
+        final ColourHistogram counts = new ColourHistogram();
+        final TileScanner.HitVisitor visitor = (x, y, colour) -> counts.increment(colour);
+        final int[] scratch = new int[TileScanner.DEFAULT.tileWidth() + 5];
+    }
+
+    public ParallelFinderPooled(int p, int T, int Ty) {
+        this.p = p;
+        this.T = T;
+        this.Ty = Ty;
+        this.forkJoinPool = new ForkJoinPool(p);
+        // Pool indices of the workers stay below twice p rounded up to a power of two (see ForkJoinPool's queues).
+        this.accumulators = new Accumulator[Integer.highestOneBit(Math.max(1, 2 * p - 1)) * 2];
+    }
+
+    /** Adaptive mode: leaves as large as those of ParallelFinderAdaptiveTaskFJ, as wide as a TileScanner tile. */
+    public ParallelFinderPooled(int p) {
+        this(p, ADAPTIVE, ADAPTIVE);
+    }
+
+    public synchronized AbstractMap<Integer, Integer> countAmongiByColour(Image img) {
+        if (Metrics.ENABLED) {
+            Metrics.PhaseEvent event = Metrics.begin(Metrics.Phase.COUNT, "ParallelFinderPooled p=" + p);
+            long steals = forkJoinPool.getStealCount();
+            AbstractMap<Integer, Integer> counts = count(img);
+            Metrics.Counter.STEALS.add(forkJoinPool.getStealCount() - steals);
+            Metrics.end(Metrics.Phase.COUNT, event);
+            return counts;
+        }
+        return count(img);
+    }
+
+    private AbstractMap<Integer, Integer> count(Image img) {
+        int leafWidth = T, leafHeight = Ty;
+        if (T == ADAPTIVE && Ty == ADAPTIVE) {
+            leafWidth = Math.max(1, Math.min(img.width, TileScanner.DEFAULT.tileWidth()));
+            leafHeight = (int) Math.max(1, Math.min(img.height, ParallelFinderAdaptiveTaskFJ.leafArea(img, p) / leafWidth));
+        }
+        long leavesX = (img.width + (long) leafWidth - 1) / leafWidth;
+        long leaves = leavesX * ((img.height + (long) leafHeight - 1) / leafHeight);
+        long batch = Math.max(1, leaves / ((long) p * BATCHES_PER_THREAD));
+        forkJoinPool.invoke(new DrainTaskFJ(null, img, leafWidth, leafHeight, leavesX, leaves, batch, new AtomicLong()));
+
+        ColourHistogram total = new ColourHistogram();
+        for (Accumulator accumulator : accumulators) {
+            if (accumulator == null) continue;
+            total.addAll(accumulator.counts);
+            accumulator.counts.clear();
+        }
+        synchronized (overflow) {
+            total.addAll(overflow);
+            overflow.clear();
+        }
+        return total.asMap();
+    }
+
+    /** Claims batches of leaves and scans them until all are claimed. The root forks one sibling per other thread. */
+    private final class DrainTaskFJ extends CountedCompleter<Void> {
+        private final Image img;
+        private final int leafWidth, leafHeight;
+        private final long leavesX, leaves, batch;
+        private final AtomicLong next; // First leaf of the next batch to claim
+
+        DrainTaskFJ(DrainTaskFJ root, Image img, int leafWidth, int leafHeight, long leavesX, long leaves, long batch, AtomicLong next) {
+            super(root);
+            this.img = img;
+            this.leafWidth = leafWidth;
+            this.leafHeight = leafHeight;
+            this.leavesX = leavesX;
+            this.leaves = leaves;
+            this.batch = batch;
+            this.next = next;
+        }
+
+        @Override
+        public void compute() {
+            if (getCompleter() == null) {
+                int siblings = (int) Math.min(p - 1, (leaves + batch - 1) / batch - 1);
+                for (int i = 0; i < siblings; i++) {
+                    addToPendingCount(1);
+                    new DrainTaskFJ(this, img, leafWidth, leafHeight, leavesX, leaves, batch, next).fork();
+                }
+            }
+            Accumulator accumulator = accumulator();
+            if (accumulator != null) {
+                drain(accumulator);
+            } else {
+                // Not one of the workers with an index, e.g. the thread that invoked the count helping out.
+                accumulator = new Accumulator();
+                drain(accumulator);
+                synchronized (overflow) {
+                    overflow.addAll(accumulator.counts);
+                }
+            }
+            tryComplete();
+        }
+
+        private void drain(Accumulator accumulator) {
+            for (long from; (from = next.getAndAdd(batch)) < leaves; ) {
+                long to = Math.min(from + batch, leaves);
+                for (long leaf = from; leaf < to; leaf++) {
+                    int x1 = (int) (leaf % leavesX * leafWidth), y1 = (int) (leaf / leavesX * leafHeight);
+                    int x2 = (int) Math.min((long) x1 + leafWidth, img.width), y2 = (int) Math.min((long) y1 + leafHeight, img.height);
+                    Metrics.LeafEvent event = Metrics.ENABLED ? Metrics.beginLeaf() : null;
+                    TileScanner.DEFAULT.scan(img, x1, x2, y1, y2, accumulator.visitor, accumulator.scratch);
+                    if (Metrics.ENABLED) Metrics.endLeaf(event, x1, x2, y1, y2);
+                }
+            }
+        }
+
+        // Returns the accumulator of the current worker thread, or null if it is not a worker of this finder's pool.
+        private Accumulator accumulator() {
+            Thread thread = Thread.currentThread();
+            if (!(thread instanceof ForkJoinWorkerThread) || ((ForkJoinWorkerThread) thread).getPool() != forkJoinPool) return null;
+            int index = ((ForkJoinWorkerThread) thread).getPoolIndex();
+            if (index >= accumulators.length) return null;
+            if (accumulators[index] == null) accumulators[index] = new Accumulator();
+            return accumulators[index];
+        }
+    }
+
+    /** Shuts down the worker threads. */
+    @Override
+    public void close() {
+        forkJoinPool.shutdown();
+    }
+}
@@ -1,24 +1,86 @@
 package solutions;
 
 import data.Image;
+import data.Metrics;
 
-import java.util.HashMap;
+import java.time.Duration;
+import java.util.AbstractMap;
 import java.util.concurrent.ForkJoinPool;
 
-public class ParallelFinderSubtotals implements AmongiFinder {
+public class ParallelFinderSubtotals implements AmongiFinder, AutoCloseable {
+    static final int ADAPTIVE = 0; // T and Ty of the adaptive mode
+
     final int p; // Number of threads
     final int T; // Sequential threshold for x-axis
     final int Ty; // Sequential threshold for y-axis
     final ForkJoinPool forkJoinPool;
+    final boolean ownsPool; // Whether close() shuts the pool down
 
     public ParallelFinderSubtotals(int p, int T, int Ty) {
         this.p = p;
         this.T = T;
         this.Ty = Ty;
         this.forkJoinPool = new ForkJoinPool(p);
+        this.ownsPool = true;
+    }
+
+    /** Adaptive mode: leaf sizes follow from the image size, p and the work queue, see ParallelFinderAdaptiveTaskFJ. */
+    public ParallelFinderSubtotals(int p) {
+        this(p, ADAPTIVE, ADAPTIVE);
+    }
+
+    /** Runs on an existing pool, e.g. the one of a FinderService. close() leaves the pool running. */
+    public ParallelFinderSubtotals(ForkJoinPool pool, int T, int Ty) {
+        this.p = pool.getParallelism();
+        this.T = T;
+        this.Ty = Ty;
+        this.forkJoinPool = pool;
+        this.ownsPool = false;
+    }
+
+    /** Adaptive mode on an existing pool. */
+    public ParallelFinderSubtotals(ForkJoinPool pool) {
+        this(pool, ADAPTIVE, ADAPTIVE);
+    }
+
+    public AbstractMap<Integer, Integer> countAmongiByColour(Image img) {
+        if (Metrics.ENABLED) {
+            Metrics.PhaseEvent event = Metrics.begin(Metrics.Phase.COUNT, "ParallelFinderSubtotals p=" + p);
+            long steals = forkJoinPool.getStealCount();
+            AbstractMap<Integer, Integer> counts = count(img);
+            Metrics.Counter.STEALS.add(forkJoinPool.getStealCount() - steals);
+            Metrics.end(Metrics.Phase.COUNT, event);
+            return counts;
+        }
+        return count(img);
+    }
+
+    private AbstractMap<Integer, Integer> count(Image img) {
+        if (T == ADAPTIVE && Ty == ADAPTIVE) {
+            return forkJoinPool.invoke(new ParallelFinderAdaptiveTaskFJ(img, 0, img.width, 0, img.height,
+                    ParallelFinderAdaptiveTaskFJ.leafArea(img, p))).asMap();
+        }
+        return forkJoinPool.invoke(new ParallelFinderSubtotalsTaskFJ(img, 0, img.width, 0, img.height, T, Ty)).asMap();
+    }
+
+    /**
+     * Counts like the adaptive mode, but stops soon after token is cancelled (or its deadline passes) and returns the
+     * counts of the part scanned until then. T and Ty are not used.
+     */
+    public PartialCounts countAmongiByColour(Image img, CancellationToken token) {
+        CancellableTaskFJ.Result result = forkJoinPool.invoke(new CancellableTaskFJ(img, 0, img.width, 0, img.height,
+                ParallelFinderAdaptiveTaskFJ.leafArea(img, p), token));
+        return new PartialCounts(result.counts.asMap(), result.scanned, (long) img.width * img.height);
+    }
+
+    /** Counts with a deadline of timeout from now, see countAmongiByColour(Image, CancellationToken). */
+    public PartialCounts countAmongiByColour(Image img, Duration timeout) {
+        return countAmongiByColour(img, CancellationToken.withTimeout(timeout));
     }
 
-    public HashMap<Integer, Integer> countAmongiByColour(Image img) {
-        return forkJoinPool.invoke(new ParallelFinderSubtotalsTaskFJ(img, 0, img.width, 0, img.height, T, Ty));
+    /** Shuts down the worker threads, if this finder created them. */
+    @Override
+    public void close() {
+        if (ownsPool) forkJoinPool.shutdown();
     }
-}
\ No newline at end of file
+}
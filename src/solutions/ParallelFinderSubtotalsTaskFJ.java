@@ -1,13 +1,12 @@
 package solutions;
 
+import data.ColourHistogram;
 import data.Image;
+import data.Metrics;
 
-import java.util.HashMap;
 import java.util.concurrent.RecursiveTask;
-import data.Amongus;
-import java.util.Map;
 
-class ParallelFinderSubtotalsTaskFJ extends RecursiveTask<HashMap<Integer, Integer>> {
+class ParallelFinderSubtotalsTaskFJ extends RecursiveTask<ColourHistogram> {
     private final int x1, x2, y1, y2; // Define ranges for both x and y axes
     private final Image img;
     private final int sequential_threshold_x, sequential_threshold_y;
@@ -23,18 +22,13 @@ class ParallelFinderSubtotalsTaskFJ extends RecursiveTask<HashMap<Integer, Integ
     }
 
     @Override
-    protected HashMap<Integer, Integer> compute() {
+    protected ColourHistogram compute() {
         if ((x2 - x1) <= sequential_threshold_x && (y2 - y1) <= sequential_threshold_y) {
             // Process the range sequentially
-            HashMap<Integer, Integer> colourCounts = new HashMap<>();
-            for (int x = x1; x < x2; x++) {
-                for (int y = y1; y < y2; y++) {
-                    if (Amongus.detect(x, y, img)) {
-                        int colour = Amongus.bodyColor(x, y, img);
-                        colourCounts.put(colour, colourCounts.getOrDefault(colour, 0) + 1);
-                    }
-                }
-            }
+            ColourHistogram colourCounts = new ColourHistogram();
+            Metrics.LeafEvent event = Metrics.ENABLED ? Metrics.beginLeaf() : null;
+            TileScanner.DEFAULT.scan(img, x1, x2, y1, y2, colourCounts);
+            if (Metrics.ENABLED) Metrics.endLeaf(event, x1, x2, y1, y2);
             return colourCounts;
         } else if ((x2 - x1) > sequential_threshold_x) {
             // Split along the x-axis
@@ -42,8 +36,8 @@ class ParallelFinderSubtotalsTaskFJ extends RecursiveTask<HashMap<Integer, Integ
             ParallelFinderSubtotalsTaskFJ left = new ParallelFinderSubtotalsTaskFJ(img, x1, pivotX, y1, y2, sequential_threshold_x, sequential_threshold_y);
             ParallelFinderSubtotalsTaskFJ right = new ParallelFinderSubtotalsTaskFJ(img, pivotX, x2, y1, y2, sequential_threshold_x, sequential_threshold_y);
             left.fork();
-            HashMap<Integer, Integer> rightResult = right.compute();
-            HashMap<Integer, Integer> leftResult = left.join();
+            ColourHistogram rightResult = right.compute();
+            ColourHistogram leftResult = left.join();
             return mergeResults(leftResult, rightResult);
         } else {
             // Split along the y-axis
@@ -51,16 +45,13 @@ class ParallelFinderSubtotalsTaskFJ extends RecursiveTask<HashMap<Integer, Integ
             ParallelFinderSubtotalsTaskFJ top = new ParallelFinderSubtotalsTaskFJ(img, x1, x2, y1, pivotY, sequential_threshold_x, sequential_threshold_y);
             ParallelFinderSubtotalsTaskFJ bottom = new ParallelFinderSubtotalsTaskFJ(img, x1, x2, pivotY, y2, sequential_threshold_x, sequential_threshold_y);
             top.fork();
-            HashMap<Integer, Integer> bottomResult = bottom.compute();
-            HashMap<Integer, Integer> topResult = top.join();
+            ColourHistogram bottomResult = bottom.compute();
+            ColourHistogram topResult = top.join();
             return mergeResults(topResult, bottomResult);
         }
     }
 
-    private HashMap<Integer, Integer> mergeResults(HashMap<Integer, Integer> map1, HashMap<Integer, Integer> map2) {
-        for (Map.Entry<Integer, Integer> entry : map2.entrySet()) {
-            map1.merge(entry.getKey(), entry.getValue(), Integer::sum);
-        }
-        return map1;
+    private ColourHistogram mergeResults(ColourHistogram map1, ColourHistogram map2) {
+        return ColourHistogram.merge(map1, map2);
     }
 }
\ No newline at end of file
@@ -0,0 +1,38 @@
+package solutions;
+
+import java.util.AbstractMap;
+
+/**
+ * Counts of a scan that may have been stopped early: the amongi found in the part of the image that was scanned,
+ * and how much of it that was. Every anchor was either scanned completely or not at all, so counts are exact for
+ * the scanned part.
+ */
+public class PartialCounts {
+    /** Number of amongi per body colour, found among the scanned anchors. */
+    public final AbstractMap<Integer, Integer> counts;
+    /** Anchors (pixel positions) that were scanned. */
+    public final long scannedAnchors;
+    /** Anchors of the whole image, width * height. */
+    public final long totalAnchors;
+
+    public PartialCounts(AbstractMap<Integer, Integer> counts, long scannedAnchors, long totalAnchors) {
+        this.counts = counts;
+        this.scannedAnchors = scannedAnchors;
+        this.totalAnchors = totalAnchors;
+    }
+
+    /** Fraction of the image that was scanned, from 0 to 1. */
+    public double coverage() {
+        return totalAnchors == 0 ? 1 : (double) scannedAnchors / totalAnchors;
+    }
+
+    /** Returns true if the whole image was scanned, i.e. counts are the final counts. */
+    public boolean isComplete() {
+        return scannedAnchors == totalAnchors;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%d colours, %.1f%% scanned", counts.size(), 100 * coverage());
+    }
+}
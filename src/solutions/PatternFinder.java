@@ -0,0 +1,80 @@
+package solutions;
+
+import data.Amongus;
+import data.ColourHistogram;
+import data.Image;
+import data.PatternSet;
+
+import java.util.AbstractMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * Counts the matches of any PatternSet per body colour, e.g. new sprites without new detection code.
+ * With Amongus.PATTERNS it gives the same counts as the other finders.
+ */
+public class PatternFinder implements AmongiFinder, AutoCloseable {
+    static final int LEAVES_PER_THREAD = 8;
+    static final int MIN_ROWS = 16; // Smallest leaf, in rows
+
+    final PatternSet patterns;
+    final int p; // Number of threads
+    final ForkJoinPool forkJoinPool;
+
+    public PatternFinder(PatternSet patterns, int p) {
+        this.patterns = patterns;
+        this.p = p;
+        this.forkJoinPool = new ForkJoinPool(p);
+    }
+
+    /** Finds the default amongus patterns. */
+    public PatternFinder(int p) {
+        this(Amongus.PATTERNS, p);
+    }
+
+    public AbstractMap<Integer, Integer> countAmongiByColour(Image img) {
+        int rows = Math.max(MIN_ROWS, img.height / (p * LEAVES_PER_THREAD));
+        return forkJoinPool.invoke(new PatternTaskFJ(img, 0, img.height, rows)).asMap();
+    }
+
+    /** Shuts down the worker threads. */
+    @Override
+    public void close() {
+        forkJoinPool.shutdown();
+    }
+
+    class PatternTaskFJ extends RecursiveTask<ColourHistogram> {
+        private final Image img;
+        private final int y1, y2;
+        private final int sequential_threshold_y;
+
+        PatternTaskFJ(Image img, int y1, int y2, int sequential_threshold_y) {
+            this.img = img;
+            this.y1 = y1;
+            this.y2 = y2;
+            this.sequential_threshold_y = sequential_threshold_y;
+        }
+
+        @Override
+        protected ColourHistogram compute() {
+            if (y2 - y1 <= sequential_threshold_y) {
+                ColourHistogram counts = new ColourHistogram();
+                PatternSet.Matcher matcher = patterns.matcher();
+                int xEnd = img.width - patterns.maxRightX, yEnd = Math.min(y2, img.height - patterns.maxBelowY);
+                for (int y = Math.max(y1, patterns.minAnchorY); y < yEnd; y++) {
+                    for (int x = patterns.minAnchorX; x < xEnd; x++) {
+                        int match = matcher.match(x, y, img);
+                        if (match >= 0) counts.increment(patterns.bodyColour(match, x, y, img));
+                    }
+                }
+                return counts;
+            }
+            int pivotY = (y1 + y2) / 2;
+            PatternTaskFJ top = new PatternTaskFJ(img, y1, pivotY, sequential_threshold_y);
+            PatternTaskFJ bottom = new PatternTaskFJ(img, pivotY, y2, sequential_threshold_y);
+            top.fork();
+            ColourHistogram bottomResult = bottom.compute();
+            return ColourHistogram.merge(top.join(), bottomResult);
+        }
+    }
+}
@@ -1,27 +1,18 @@
 package solutions;
 
-import data.Amongus;
+import data.ColourHistogram;
 import data.Image;
+import data.Metrics;
 
-import java.util.HashMap;
+import java.util.AbstractMap;
 
 public class SequentialFinder implements AmongiFinder {
 
-    public HashMap<Integer, Integer> countAmongiByColour(Image img) {
-        HashMap<Integer, Integer> colourCounts = new HashMap<>();
-        for (int x = 0; x < img.width; x++) {
-            for (int y = 0; y < img.height; y++) {
-                if (Amongus.detect(x, y, img)) {
-                    int colour = Amongus.bodyColor(x, y, img);
-                    if (colourCounts.containsKey(colour)) {
-                        int currentCount = colourCounts.get(colour);
-                        colourCounts.put(colour, currentCount + 1);
-                    } else {
-                        colourCounts.put(colour, 1);
-                    }
-                }
-            }
-        }
-        return colourCounts;
+    public AbstractMap<Integer, Integer> countAmongiByColour(Image img) {
+        Metrics.PhaseEvent event = Metrics.ENABLED ? Metrics.begin(Metrics.Phase.COUNT, "SequentialFinder") : null;
+        ColourHistogram colourCounts = new ColourHistogram();
+        TileScanner.DEFAULT.scan(img, 0, img.width, 0, img.height, colourCounts);
+        if (Metrics.ENABLED) Metrics.end(Metrics.Phase.COUNT, event);
+        return colourCounts.asMap();
     }
 }
@@ -0,0 +1,216 @@
+package solutions;
+
+import data.ColourHistogram;
+import data.Image;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * Counts an image on several ShardWorkers, e.g. JVMs on other machines, by sending each one tiles to count.
+ *
+ * The anchors of the image are split into tiles of tileSize x tileSize; each anchor is owned by exactly one tile.
+ * A tile is sent with the halo of pixels its anchors read (see ShardWorker), and the worker returns the counts of
+ * the anchors it owns only, so adding up the per-tile histograms counts every amongus exactly once.
+ *
+ * Every worker has one connection and one thread here, which takes the next tile as soon as the previous one is
+ * answered, so faster workers count more tiles. If a worker fails, its tile goes back to the others and it gets no more
+ * tiles of this count (it is reconnected on the next one); the count fails only if no worker is left.
+ */
+public class ShardCoordinator implements AmongiFinder, AutoCloseable {
+    static final int HALO_LEFT = 1, HALO_RIGHT = 4, HALO_ABOVE = 1, HALO_BELOW = 5; // Pixels read around an anchor
+
+    final List<InetSocketAddress> workers;
+    final int tileSize;
+    private final Connection[] connections; // Per worker, null while there is no open connection
+
+    /** One open connection to a worker, reused for all tiles. */
+    private static final class Connection implements AutoCloseable {
+        final Socket socket;
+        final DataInputStream in;
+        final DataOutputStream out;
+        final byte[] buffer = new byte[1 << 16];
+        int[] row = new int[0];
+
+        Connection(InetSocketAddress address) throws IOException {
+            socket = new Socket(address.getAddress(), address.getPort());
+            socket.setTcpNoDelay(true);
+            in = new DataInputStream(new BufferedInputStream(socket.getInputStream(), 1 << 16));
+            out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream(), 1 << 16));
+        }
+
+        @Override
+        public void close() {
+            try {
+                socket.close();
+            } catch (IOException e) {
+                // Already broken
+            }
+        }
+    }
+
+    public ShardCoordinator(List<InetSocketAddress> workers, int tileSize) {
+        if (workers.isEmpty()) throw new IllegalArgumentException("No workers");
+        this.workers = List.copyOf(workers);
+        this.tileSize = tileSize;
+        this.connections = new Connection[workers.size()];
+    }
+
+    public AbstractMap<Integer, Integer> countAmongiByColour(Image img) {
+        ConcurrentLinkedQueue<int[]> tiles = new ConcurrentLinkedQueue<>();
+        for (int y = 0; y < img.height; y += tileSize) {
+            for (int x = 0; x < img.width; x += tileSize) {
+                tiles.add(new int[]{x, (int) Math.min((long) x + tileSize, img.width), y, (int) Math.min((long) y + tileSize, img.height)});
+            }
+        }
+
+        ColourHistogram total = new ColourHistogram();
+        List<IOException> errors = new ArrayList<>();
+        boolean[] failedBefore = new boolean[workers.size()]; // Not given more tiles during this count
+        // Tiles of a failed worker are put back; the next round gives them to the workers that are left.
+        while (!tiles.isEmpty()) {
+            List<Integer> alive = connect(errors, failedBefore);
+            if (alive.isEmpty()) {
+                UncheckedIOException failure = new UncheckedIOException(new IOException("No worker is reachable"));
+                errors.forEach(failure::addSuppressed);
+                throw failure;
+            }
+            ColourHistogram[] results = new ColourHistogram[alive.size()];
+            IOException[] failed = new IOException[alive.size()];
+            Thread[] threads = new Thread[alive.size()];
+            for (int i = 0; i < threads.length; i++) {
+                int slot = i;
+                Connection connection = connections[alive.get(i)];
+                results[i] = new ColourHistogram();
+                threads[i] = new Thread(() -> {
+                    int[] tile;
+                    while ((tile = tiles.poll()) != null) {
+                        try {
+                            results[slot].addAll(count(connection, img, tile));
+                        } catch (IOException e) {
+                            tiles.add(tile);
+                            failed[slot] = e;
+                            return;
+                        }
+                    }
+                }, "ShardCoordinator-" + workers.get(alive.get(i)));
+                threads[i].start();
+            }
+            joinAll(threads);
+            for (int i = 0; i < threads.length; i++) {
+                total = ColourHistogram.merge(total, results[i]);
+                if (failed[i] != null) {
+                    errors.add(failed[i]);
+                    failedBefore[alive.get(i)] = true;
+                    disconnect(alive.get(i));
+                }
+            }
+        }
+        return total.asMap();
+    }
+
+    // Connects to the workers that have no connection yet, and returns the indices of those that have one now,
+    // except for the excluded ones. A worker that cannot be reached is tried again on the next count.
+    private synchronized List<Integer> connect(List<IOException> errors, boolean[] excluded) {
+        List<Integer> alive = new ArrayList<>();
+        for (int i = 0; i < connections.length; i++) {
+            if (excluded[i]) continue;
+            if (connections[i] == null) {
+                try {
+                    connections[i] = new Connection(workers.get(i));
+                } catch (IOException e) {
+                    errors.add(e);
+                    continue;
+                }
+            }
+            alive.add(i);
+        }
+        return alive;
+    }
+
+    private synchronized void disconnect(int worker) {
+        if (connections[worker] != null) connections[worker].close();
+        connections[worker] = null;
+    }
+
+    /** Sends tile [x1, x2) x [y1, y2) of img with its halo, and returns the counts of its anchors. */
+    private static ColourHistogram count(Connection c, Image img, int[] tile) throws IOException {
+        int x1 = tile[0], x2 = tile[1], y1 = tile[2], y2 = tile[3];
+        int sx1 = Math.max(0, x1 - HALO_LEFT), sx2 = (int) Math.min((long) x2 + HALO_RIGHT, img.width);
+        int sy1 = Math.max(0, y1 - HALO_ABOVE), sy2 = (int) Math.min((long) y2 + HALO_BELOW, img.height);
+        int width = sx2 - sx1, height = sy2 - sy1;
+        if (c.row.length < width) c.row = new int[width];
+
+        DataOutputStream out = c.out;
+        out.writeInt(ShardWorker.MAGIC);
+        out.writeInt(width);
+        out.writeInt(height);
+        out.writeInt(x1 - sx1);
+        out.writeInt(x2 - sx1);
+        out.writeInt(y1 - sy1);
+        out.writeInt(y2 - sy1);
+        for (int y = sy1; y < sy2; y++) {
+            img.getRow(y, sx1, width, c.row, 0);
+            ShardWorker.writePixels(out, c.row, 0, width, c.buffer);
+        }
+        out.flush();
+
+        int n = c.in.readInt();
+        if (n < 0) throw new IOException("Worker failed: " + c.in.readUTF());
+        ColourHistogram counts = new ColourHistogram(n); // Complete before it is added, so a retried tile is not counted twice
+        for (int i = 0; i < n; i++) {
+            int colour = c.in.readInt();
+            counts.add(colour, c.in.readInt());
+        }
+        return counts;
+    }
+
+    private static void joinAll(Thread[] threads) {
+        boolean interrupted = false;
+        for (Thread thread : threads) {
+            while (true) {
+                try {
+                    thread.join();
+                    break;
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+        }
+        if (interrupted) Thread.currentThread().interrupt();
+    }
+
+    /** Closes the connections to the workers, which keep running. */
+    @Override
+    public synchronized void close() {
+        for (int i = 0; i < connections.length; i++) disconnect(i);
+    }
+
+    /**
+     * Counts an image on running workers: ShardCoordinator image tileSize host:port...
+     */
+    public static void main(String[] args) {
+        List<InetSocketAddress> workers = new ArrayList<>();
+        for (int i = 2; i < args.length; i++) {
+            int colon = args[i].lastIndexOf(':');
+            workers.add(new InetSocketAddress(args[i].substring(0, colon), Integer.parseInt(args[i].substring(colon + 1))));
+        }
+        Image img = new Image(args[0]);
+        try (ShardCoordinator coordinator = new ShardCoordinator(workers, Integer.parseInt(args[1]))) {
+            long start = System.nanoTime();
+            AbstractMap<Integer, Integer> counts = coordinator.countAmongiByColour(img);
+            long total = counts.values().stream().mapToLong(Integer::longValue).sum();
+            System.out.printf("%d amongi of %d colours in %.1f ms%n", total, counts.size(), (System.nanoTime() - start) / 1e6);
+        }
+    }
+}
@@ -0,0 +1,162 @@
+package solutions;
+
+import data.ColourHistogram;
+import data.Image;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.util.AbstractMap;
+import java.util.Map;
+
+/**
+ * Counts the tiles that a ShardCoordinator sends over a socket, with any AmongiFinder.
+ *
+ * A tile arrives with its halo: the pixels that anchors of the tile read outside it (1 column left, 4 right, 1 row
+ * above, 5 below, see Amongus.detect). The finder counts the whole received sub-image, so it also counts anchors in
+ * the halo, which belong to neighbouring tiles and are wrong here anyway, because their pixels beyond the halo are
+ * missing. Those halo anchors are counted again on their own with TileScanner, on the same sub-image, and subtracted:
+ * what is left are exactly the anchors of the tile, whose pixels are all present.
+ *
+ * Protocol, all big-endian, any number of requests per connection:
+ *   request:  MAGIC, width, height, owned x1, x2, y1, y2 (in sub-image coordinates), width * height ARGB pixels
+ *   response: number of colours n >= 0, then n times colour, count; or -1 and an error message (writeUTF)
+ */
+public class ShardWorker implements AutoCloseable {
+    static final int MAGIC = 0x414D5348;
+
+    final AmongiFinder finder;
+    final ServerSocket server;
+    private final Thread acceptor;
+
+    /** Listens on port (0 for any free port) of the loopback interface if local, and of all interfaces otherwise. */
+    public ShardWorker(AmongiFinder finder, int port, boolean local) throws IOException {
+        this.finder = finder;
+        this.server = local ? new ServerSocket(port, 50, InetAddress.getLoopbackAddress()) : new ServerSocket(port);
+        this.acceptor = new Thread(this::acceptAll, "ShardWorker-" + server.getLocalPort());
+        acceptor.setDaemon(true);
+        acceptor.start();
+    }
+
+    /** Returns the port this worker listens on. */
+    public int port() {
+        return server.getLocalPort();
+    }
+
+    private void acceptAll() {
+        while (!server.isClosed()) {
+            try {
+                Socket socket = server.accept();
+                Thread connection = new Thread(() -> serve(socket), "ShardWorker-connection");
+                connection.setDaemon(true);
+                connection.start();
+            } catch (IOException e) {
+                if (!server.isClosed()) System.err.println("ShardWorker: " + e.getMessage());
+            }
+        }
+    }
+
+    // Answers the requests of one coordinator until it closes the connection.
+    private void serve(Socket socket) {
+        try (socket;
+             DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream(), 1 << 16));
+             DataOutputStream out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream(), 1 << 16))) {
+            while (true) {
+                int magic;
+                try {
+                    magic = in.readInt();
+                } catch (EOFException e) {
+                    return; // The coordinator is done
+                }
+                if (magic != MAGIC) throw new IOException("Not a shard request");
+                int width = in.readInt(), height = in.readInt();
+                int x1 = in.readInt(), x2 = in.readInt(), y1 = in.readInt(), y2 = in.readInt();
+                int[] pixels = new int[Math.multiplyExact(width, height)];
+                readPixels(in, pixels);
+                AbstractMap<Integer, Integer> counts;
+                try {
+                    counts = countOwned(finder, new Image(width, height, pixels, Image.Layout.ROW_MAJOR), x1, x2, y1, y2);
+                } catch (RuntimeException e) {
+                    out.writeInt(-1);
+                    out.writeUTF(String.valueOf(e));
+                    out.flush();
+                    continue;
+                }
+                out.writeInt(counts.size());
+                for (Map.Entry<Integer, Integer> entry : counts.entrySet()) {
+                    out.writeInt(entry.getKey());
+                    out.writeInt(entry.getValue());
+                }
+                out.flush();
+            }
+        } catch (IOException e) {
+            if (!server.isClosed()) System.err.println("ShardWorker: " + e.getMessage());
+        }
+    }
+
+    /** Counts the amongi anchored in [x1, x2) x [y1, y2) of img with finder, see the class comment. */
+    static AbstractMap<Integer, Integer> countOwned(AmongiFinder finder, Image img, int x1, int x2, int y1, int y2) {
+        ColourHistogram halo = new ColourHistogram();
+        TileScanner.DEFAULT.scan(img, 0, img.width, 0, y1, halo);               // Above
+        TileScanner.DEFAULT.scan(img, 0, img.width, y2, img.height, halo);      // Below
+        TileScanner.DEFAULT.scan(img, 0, x1, y1, y2, halo);                     // Left
+        TileScanner.DEFAULT.scan(img, x2, img.width, y1, y2, halo);             // Right
+
+        ColourHistogram owned = new ColourHistogram();
+        for (Map.Entry<Integer, Integer> entry : finder.countAmongiByColour(img).entrySet()) {
+            owned.add(entry.getKey(), entry.getValue());
+        }
+        halo.forEach(owned::subtract); // Throws if the finder missed amongi that TileScanner found
+        return owned.asMap();
+    }
+
+    static void writePixels(DataOutputStream out, int[] pixels, int from, int to, byte[] buffer) throws IOException {
+        ByteBuffer bytes = ByteBuffer.wrap(buffer);
+        for (int i = from; i < to; ) {
+            int n = Math.min(to - i, buffer.length / 4);
+            bytes.clear();
+            bytes.asIntBuffer().put(pixels, i, n);
+            out.write(buffer, 0, n * 4);
+            i += n;
+        }
+    }
+
+    static void readPixels(DataInputStream in, int[] pixels) throws IOException {
+        byte[] buffer = new byte[1 << 16];
+        ByteBuffer bytes = ByteBuffer.wrap(buffer);
+        for (int i = 0; i < pixels.length; ) {
+            int n = Math.min(pixels.length - i, buffer.length / 4);
+            in.readFully(buffer, 0, n * 4);
+            bytes.clear();
+            bytes.asIntBuffer().get(pixels, i, n);
+            i += n;
+        }
+    }
+
+    /** Stops accepting tiles; connections that are open are served until the coordinator closes them. */
+    @Override
+    public void close() throws IOException {
+        server.close();
+    }
+
+    /**
+     * Runs a worker until it is killed: ShardWorker port [p] [-local]
+     * Counts with ParallelFinderSubtotals on p threads (default: all cores). Prints the port it listens on, which
+     * is useful with port 0.
+     */
+    public static void main(String[] args) throws Exception {
+        int port = Integer.parseInt(args[0]);
+        int p = args.length > 1 && !args[1].startsWith("-") ? Integer.parseInt(args[1]) : Runtime.getRuntime().availableProcessors();
+        boolean local = args[args.length - 1].equals("-local");
+        ShardWorker worker = new ShardWorker(new ParallelFinderSubtotals(p), port, local);
+        System.out.println("Listening on port " + worker.port());
+        worker.acceptor.join();
+    }
+}
@@ -0,0 +1,93 @@
+package solutions;
+
+import data.ColourHistogram;
+import data.Image;
+import data.PngScanlineReader;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.AbstractMap;
+
+/**
+ * Counts amongi while a PNG is being decoded, band by band, so the whole image never has to be in memory.
+ * Peak memory is O(width * (bandHeight + HALO)) instead of O(width * height).
+ */
+public class StreamingFinder implements AmongiFinder {
+    static final int HALO_ABOVE = 1; // Amongus.detect reads the row above the anchor
+    static final int HALO_BELOW = 5; // ... and up to 5 rows below it (body, legs and the row under the legs)
+
+    final int bandHeight; // Number of anchor rows scanned per band
+
+    public StreamingFinder(int bandHeight) {
+        this.bandHeight = bandHeight;
+    }
+
+    /**
+     * Decodes the PNG at path in bands and counts the amongi in each band as soon as it has been decoded.
+     * Throws UncheckedIOException if the file cannot be read.
+     */
+    public AbstractMap<Integer, Integer> countAmongiByColour(String path) {
+        PngScanlineReader reader = null;
+        try {
+            reader = PngScanlineReader.open(path);
+            if (reader == null) {
+                // Format not supported by the streaming decoder, fall back to decoding the whole image.
+                return countAmongiByColour(new Image(path));
+            }
+            return count(reader.width, reader.height, reader::readRow).asMap();
+        } catch (IOException e) {
+            throw new UncheckedIOException("Could not read image " + path, e);
+        } finally {
+            if (reader != null) {
+                try {
+                    reader.close();
+                } catch (IOException ignored) {
+                }
+            }
+        }
+    }
+
+    /** Scans an image that is already in memory with the same band-by-band algorithm. */
+    public AbstractMap<Integer, Integer> countAmongiByColour(Image img) {
+        int[] y = {0};
+        try {
+            return count(img.width, img.height, (dst, offset) -> img.getRow(y[0]++, dst, offset)).asMap();
+        } catch (IOException e) {
+            throw new IllegalStateException(e); // Cannot happen, the rows come from memory
+        }
+    }
+
+    /** Source of consecutive rows of pixels, top to bottom. */
+    interface RowSource {
+        void readRow(int[] dst, int offset) throws IOException;
+    }
+
+    private ColourHistogram count(int width, int height, RowSource rows) throws IOException {
+        ColourHistogram colourCounts = new ColourHistogram();
+        int capacity = HALO_ABOVE + bandHeight + HALO_BELOW;
+        int[] band = new int[Math.multiplyExact(width, capacity)];
+
+        int top = 0;    // Image row stored in the first row of the band buffer
+        int filled = 0; // Number of rows currently in the band buffer
+        for (int y0 = 0; y0 < height; y0 += bandHeight) {
+            int y1 = Math.min(y0 + bandHeight, height);
+            // Decode the rows of this band, plus the rows below it that anchors in the band look at.
+            int end = Math.min(y1 + HALO_BELOW, height);
+            while (top + filled < end) {
+                rows.readRow(band, filled * width);
+                filled++;
+            }
+            // Unless the band reaches the bottom of the image, it stops HALO_BELOW rows after the last anchor,
+            // so every boundary check in Amongus.detect behaves as it would on the full image.
+            Image window = new Image(width, filled, band);
+            TileScanner.DEFAULT.scan(window, 0, width, y0 - top, y1 - top, colourCounts);
+            // Keep the halo of the next band: the row above it and the rows already decoded after y1.
+            int keepFrom = Math.max(y1 - HALO_ABOVE, top);
+            int keep = top + filled - keepFrom;
+            System.arraycopy(band, (keepFrom - top) * width, band, 0, keep * width);
+            top = keepFrom;
+            filled = keep;
+        }
+        return colourCounts;
+    }
+}
@@ -0,0 +1,185 @@
+package solutions;
+
+import data.Amongus;
+import data.ColourHistogram;
+import data.Image;
+import data.Metrics;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+/**
+ * Traversal shared by all finders: visits the anchors of a region row by row inside 2D tiles.
+ *
+ * An anchor reads 7 rows (one above, up to five below). Walking a whole image row of a 23k wide canvas touches
+ * 7 * 23k * 4 bytes = 644 KB per anchor row, far more than L1. Inside a tile only 7 * tileWidth pixels are live,
+ * so the rows of the next anchor row are still cached, and a tile as a whole stays in L2.
+ *
+ * Most anchors fail on the 3rd row, which must be a run of exactly 4 pixels of one colour. Instead of calling
+ * Amongus.detect for every anchor, each row is swept once for such runs and only their starts are checked fully.
+ * The sweep is either scalar or done 64 anchors at a time by LaneKernel, selected with -Damongus.kernel.
+ */
+public class TileScanner {
+    /** Callback for every amongus found. */
+    public interface HitVisitor {
+        void hit(int x, int y, int colour);
+    }
+
+    /** How the row-3 check is evaluated. */
+    public enum Kernel {
+        SCALAR, // Run-length sweep, one pixel at a time, on any Image
+        LANES   // LaneKernel: 64 anchors per step
+    }
+
+    static final int ROWS_PER_ANCHOR = 7;
+
+    /** Scanner with tiles sized from the caches of this machine, see autoSized(). */
+    public static final TileScanner DEFAULT = autoSized();
+
+    final int tileWidth;
+    final int tileHeight;
+    final Kernel kernel;
+
+    public TileScanner(int tileWidth, int tileHeight, Kernel kernel) {
+        if (tileWidth < 1 || tileHeight < 1) throw new IllegalArgumentException("Tiles must be at least 1x1");
+        this.tileWidth = tileWidth;
+        this.tileHeight = tileHeight;
+        this.kernel = kernel;
+    }
+
+    public TileScanner(int tileWidth, int tileHeight) {
+        this(tileWidth, tileHeight, defaultKernel());
+    }
+
+    /** The kernel selected with -Damongus.kernel=scalar|lanes, LANES if not set. */
+    static Kernel defaultKernel() {
+        return Kernel.valueOf(System.getProperty("amongus.kernel", "lanes").toUpperCase());
+    }
+
+    /**
+     * Sizes tiles so that the 7 rows read by a row of anchors fill at most half of L1, and a whole tile plus its
+     * halo fills at most half of L2. Can be overridden with -Damongus.tileWidth and -Damongus.tileHeight.
+     */
+    public static TileScanner autoSized() {
+        long l1 = cacheSize(1, 32 * 1024);
+        long l2 = cacheSize(2, 256 * 1024);
+        int width = (int) Math.max(64, (l1 / 2 / (ROWS_PER_ANCHOR * 4)) & ~63L); // Whole cache lines of pixels
+        int height = (int) Math.max(16, l2 / 2 / (width * 4L) - (ROWS_PER_ANCHOR - 1));
+        return new TileScanner(Integer.getInteger("amongus.tileWidth", width), Integer.getInteger("amongus.tileHeight", height));
+    }
+
+    /** Reads the size of the data/unified cache of a level from sysfs, or returns fallback if it is unavailable. */
+    static long cacheSize(int level, long fallback) {
+        for (int i = 0; i < 8; i++) {
+            Path dir = Paths.get("/sys/devices/system/cpu/cpu0/cache/index" + i);
+            try {
+                if (!Files.isDirectory(dir)) break;
+                if (Integer.parseInt(read(dir.resolve("level"))) != level) continue;
+                if (read(dir.resolve("type")).equals("Instruction")) continue;
+                String size = read(dir.resolve("size"));
+                long unit = size.endsWith("K") ? 1024 : size.endsWith("M") ? 1024 * 1024 : 1;
+                return Long.parseLong(size.replaceAll("[KM]$", "")) * unit;
+            } catch (IOException | NumberFormatException e) {
+                break;
+            }
+        }
+        return fallback;
+    }
+
+    private static String read(Path file) throws IOException {
+        return new String(Files.readAllBytes(file)).trim();
+    }
+
+    public int tileWidth() {
+        return tileWidth;
+    }
+
+    public int tileHeight() {
+        return tileHeight;
+    }
+
+    public Kernel kernel() {
+        return kernel;
+    }
+
+    /** Counts the amongi anchored in [x1, x2) x [y1, y2) into counts. */
+    public void scan(Image img, int x1, int x2, int y1, int y2, ColourHistogram counts) {
+        scan(img, x1, x2, y1, y2, (x, y, colour) -> counts.increment(colour));
+    }
+
+    /** Calls visitor for every amongus anchored in [x1, x2) x [y1, y2). */
+    public void scan(Image img, int x1, int x2, int y1, int y2, HitVisitor visitor) {
+        scan(img, x1, x2, y1, y2, visitor, null);
+    }
+
+    /**
+     * Like scan, but uses scratch for the copied rows if it has at least tileWidth + 5 elements, so that callers
+     * scanning many small regions allocate nothing.
+     */
+    void scan(Image img, int x1, int x2, int y1, int y2, HitVisitor visitor, int[] scratch) {
+        // Anchors within 3 pixels of the right or bottom edge can never match.
+        x2 = Math.min(x2, img.width - 3);
+        y2 = Math.min(y2, img.height - 3);
+        if (Metrics.ENABLED) {
+            Metrics.Counter.ANCHORS.add((long) Math.max(0, x2 - x1) * Math.max(0, y2 - y1));
+            HitVisitor counted = visitor;
+            visitor = (x, y, colour) -> {
+                Metrics.Counter.DETECTIONS.increment();
+                counted.hit(x, y, colour);
+            };
+        }
+        boolean lanes = kernel == Kernel.LANES;
+        int[] pixels = lanes ? img.rowMajorPixels() : null;
+        // Images that are not a plain row-major int[] (tiled, mapped, paletted) get the part of row y + 2 copied.
+        if (!lanes || pixels != null) {
+            scratch = null;
+        } else if (scratch == null || scratch.length < tileWidth + 5) {
+            scratch = new int[Math.min(tileWidth, Math.max(0, x2 - x1)) + 5];
+        }
+        for (int ty = y1, tyEnd; ty < y2; ty = tyEnd) {
+            tyEnd = (int) Math.min((long) ty + tileHeight, y2);
+            for (int tx = x1, txEnd; tx < x2; tx = txEnd) {
+                txEnd = (int) Math.min((long) tx + tileWidth, x2);
+                for (int y = ty; y < tyEnd; y++) {
+                    if (pixels != null) {
+                        LaneKernel.scanRow(img, pixels, tx, txEnd, y, visitor);
+                    } else if (scratch != null) {
+                        LaneKernel.scanRowCopy(img, scratch, tx, txEnd, y, visitor);
+                    } else {
+                        scanRow(img, tx, txEnd, y, visitor);
+                    }
+                }
+            }
+        }
+    }
+
+    /** Visits the amongi anchored in [x1, x2) on row y, checking only anchors where row y + 2 has a run of 4. */
+    private static void scanRow(Image img, int x1, int x2, int y, HitVisitor visitor) {
+        int r = y + 2;
+        int x = x1;
+        // If x1 is in the middle of a run, nothing can start before the run ends.
+        if (x > 0) {
+            int c = img.getColor(x, r);
+            if (img.getColor(x - 1, r) == c) {
+                while (x < x2 && img.getColor(x, r) == c) x++;
+            }
+        }
+        while (x < x2) {
+            int c = img.getColor(x, r);
+            int end = x + 1;
+            while (end < img.width && end - x < 5 && img.getColor(end, r) == c) end++;
+            if (end - x == 4) {
+                // Exactly 4: the run stopped at a different colour or at the edge of the image.
+                if (Amongus.detectCandidate(x, y, img)) {
+                    visitor.hit(x, y, c);
+                }
+            } else if (end - x == 5) {
+                // Too long, skip the rest of this run (but not beyond the region).
+                while (end < x2 && img.getColor(end, r) == c) end++;
+            }
+            x = end;
+        }
+    }
+}
@@ -0,0 +1,160 @@
+package solutions;
+
+import data.ColourHistogram;
+import data.Image;
+
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Thread-per-tile finder, to compare with the Fork/Join finders: one subtask per tile of a TileScanner, all forked
+ * up front, then joined in a scope that either collects every subtotal or cancels every subtask.
+ *
+ * Uses virtual threads (Executors.newVirtualThreadPerTaskExecutor) on a JVM that has them, and a fixed pool of
+ * platform threads, one per core, otherwise. The join is shaped like StructuredTaskScope.ShutdownOnFailure: when a
+ * subtask fails or the deadline passes, the other subtasks are interrupted, and the scope does not return before
+ * all of them have finished, so no subtask outlives the call.
+ */
+public class TileTaskFinder implements AmongiFinder, AutoCloseable {
+    final TileScanner scanner; // Its tiles are the subtasks
+    final long timeoutMillis;  // Deadline per image, 0 for none
+    final ExecutorService executor;
+    final boolean virtualThreads;
+
+    public TileTaskFinder(TileScanner scanner, long timeoutMillis) {
+        this.scanner = scanner;
+        this.timeoutMillis = timeoutMillis;
+        ExecutorService virtual = virtualThreadExecutor();
+        this.virtualThreads = virtual != null;
+        this.executor = virtual != null ? virtual : Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors(), r -> {
+            Thread thread = new Thread(r, "TileTaskFinder");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    public TileTaskFinder() {
+        this(TileScanner.DEFAULT, 0);
+    }
+
+    /** Returns Executors.newVirtualThreadPerTaskExecutor() if this JVM has virtual threads, and null otherwise. */
+    static ExecutorService virtualThreadExecutor() {
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException e) {
+            return null;
+        }
+    }
+
+    /** Returns true if the subtasks run on virtual threads. */
+    public boolean usesVirtualThreads() {
+        return virtualThreads;
+    }
+
+    /**
+     * Counts the amongi of img. Throws CancellationException if the deadline passes first; the subtasks are
+     * cancelled then, and no partial counts are returned.
+     */
+    public AbstractMap<Integer, Integer> countAmongiByColour(Image img) {
+        int x2 = img.width - 3, y2 = img.height - 3; // Anchors closer to the edges never match
+        long deadline = timeoutMillis > 0 ? System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMillis) : Long.MAX_VALUE;
+
+        List<int[]> tiles = new ArrayList<>();
+        for (int ty = 0; ty < y2; ty += scanner.tileHeight) {
+            for (int tx = 0; tx < x2; tx += scanner.tileWidth) {
+                tiles.add(new int[]{tx, (int) Math.min((long) tx + scanner.tileWidth, x2),
+                        ty, (int) Math.min((long) ty + scanner.tileHeight, y2)});
+            }
+        }
+
+        // Fork: one subtask per tile.
+        Scope scope = new Scope();
+        List<Future<ColourHistogram>> subtasks = new ArrayList<>(tiles.size());
+        for (int[] tile : tiles) {
+            subtasks.add(executor.submit(() -> {
+                if (!scope.enter()) return null;
+                try {
+                    ColourHistogram counts = new ColourHistogram();
+                    scanner.scan(img, tile[0], tile[1], tile[2], tile[3], counts);
+                    return counts;
+                } finally {
+                    scope.exit();
+                }
+            }));
+        }
+
+        // Join: collect the subtotals in order, or cancel everything on the first failure or at the deadline.
+        ColourHistogram total = new ColourHistogram();
+        try {
+            for (Future<ColourHistogram> subtask : subtasks) {
+                long remaining = deadline - System.nanoTime();
+                if (remaining <= 0) throw new TimeoutException();
+                total = ColourHistogram.merge(total, subtask.get(remaining, TimeUnit.NANOSECONDS));
+            }
+            return total.asMap();
+        } catch (TimeoutException e) {
+            scope.shutdown(subtasks);
+            throw new CancellationException("Deadline of " + timeoutMillis + " ms passed");
+        } catch (ExecutionException e) {
+            scope.shutdown(subtasks);
+            if (e.getCause() instanceof RuntimeException) throw (RuntimeException) e.getCause();
+            throw new IllegalStateException(e.getCause());
+        } catch (InterruptedException e) {
+            scope.shutdown(subtasks);
+            Thread.currentThread().interrupt();
+            throw new CancellationException("Interrupted");
+        }
+    }
+
+    /** Tracks the subtasks of one call that are running, so that shutdown can wait for them. */
+    private static final class Scope {
+        private int active; // Subtasks between enter and exit
+        private boolean closed;
+
+        /** Returns false if the scope was shut down; the subtask must not start then. */
+        synchronized boolean enter() {
+            if (closed) return false;
+            active++;
+            return true;
+        }
+
+        synchronized void exit() {
+            if (--active == 0) notifyAll();
+        }
+
+        /** Cancels the subtasks and waits until none of them is running any more. */
+        void shutdown(List<Future<ColourHistogram>> subtasks) {
+            synchronized (this) {
+                closed = true;
+            }
+            for (Future<ColourHistogram> subtask : subtasks) {
+                subtask.cancel(true);
+            }
+            boolean interrupted = false;
+            synchronized (this) {
+                while (active > 0) {
+                    try {
+                        wait();
+                    } catch (InterruptedException e) {
+                        interrupted = true;
+                    }
+                }
+            }
+            if (interrupted) Thread.currentThread().interrupt();
+        }
+    }
+
+    /** Stops the threads. */
+    @Override
+    public void close() {
+        executor.shutdownNow();
+    }
+}
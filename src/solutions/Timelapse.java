@@ -0,0 +1,134 @@
+package solutions;
+
+import data.Image;
+import data.PixelEventLog;
+
+import java.io.IOException;
+import java.util.AbstractMap;
+import java.util.HashMap;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * Replays a log of pixel placements (see PixelEventLog) onto a canvas and reports the amongus counts over time.
+ *
+ * A parser thread reads the log into batches while the calling thread applies them with an IncrementalFinder, so
+ * parsing and detection overlap. Counts are reported every everyEvents placements and/or whenever the log's time
+ * crosses a multiple of everyMillis after its first placement, and once more at the end of the log.
+ */
+public class Timelapse {
+    static final int BATCH_SIZE = 1 << 14; // Placements per batch handed from the parser to the replayer
+    static final int QUEUE_SIZE = 8;       // Batches parsed ahead of the replayer
+
+    /** Receives the counts as of a point in the replay. The map is a snapshot and may be kept. */
+    public interface Listener {
+        void counts(long events, long time, AbstractMap<Integer, Integer> counts);
+    }
+
+    final IncrementalFinder finder;
+    final long everyEvents; // Report interval in placements, 0 to disable
+    final long everyMillis; // Report interval in log time, 0 to disable
+
+    /** Replays onto canvas, which is modified. Placements must lie inside the canvas. */
+    public Timelapse(Image canvas, long everyEvents, long everyMillis) {
+        this.finder = new IncrementalFinder(canvas);
+        this.everyEvents = everyEvents;
+        this.everyMillis = everyMillis;
+    }
+
+    /** Returns the canvas with all placements replayed so far. */
+    public Image canvas() {
+        return finder.image();
+    }
+
+    /** Replays a whole log and returns the number of placements. */
+    public long replay(String path, Listener listener) throws IOException {
+        BlockingQueue<PixelEventLog.Batch> free = new ArrayBlockingQueue<>(QUEUE_SIZE + 2);
+        BlockingQueue<PixelEventLog.Batch> parsed = new ArrayBlockingQueue<>(QUEUE_SIZE + 2);
+        for (int i = 0; i < QUEUE_SIZE + 2; i++) free.add(new PixelEventLog.Batch(BATCH_SIZE));
+        Throwable[] parseError = new Throwable[1]; // Ends the parser; rethrown by the replayer
+
+        PixelEventLog log = PixelEventLog.open(path);
+        Thread parser = new Thread(() -> {
+            try (log) {
+                while (true) {
+                    PixelEventLog.Batch batch = free.take();
+                    log.read(batch);
+                    parsed.put(batch);
+                    if (batch.size == 0) return; // End of the log
+                }
+            } catch (InterruptedException e) {
+                // The replay stopped early
+            } catch (Throwable e) {
+                // Any failure, not only a malformed log, must still end the replay, which waits for the end batch.
+                parseError[0] = e;
+                parsed.offer(new PixelEventLog.Batch(0));
+            }
+        }, "Timelapse-parser");
+        parser.setDaemon(true);
+        parser.start();
+
+        try {
+            long events = 0, reported = 0;
+            long lastTime = 0, nextTime = Long.MIN_VALUE; // Log time of the next report
+            while (true) {
+                PixelEventLog.Batch batch = parsed.take();
+                if (batch.size == 0) break;
+                int from = 0;
+                for (int i = 0; i < batch.size; i++) {
+                    long time = batch.time[i];
+                    if (everyMillis > 0 && nextTime == Long.MIN_VALUE) nextTime = time + everyMillis;
+                    if (everyMillis > 0 && time >= nextTime) {
+                        // Report the counts as of the interval boundary, before this placement.
+                        finder.update(batch.x, batch.y, batch.colour, from, i);
+                        from = i;
+                        listener.counts(events, nextTime, snapshot());
+                        reported = events;
+                        nextTime += (time - nextTime) / everyMillis * everyMillis + everyMillis; // Skip empty intervals
+                    }
+                    events++;
+                    lastTime = time;
+                    if (everyEvents > 0 && events % everyEvents == 0) {
+                        finder.update(batch.x, batch.y, batch.colour, from, i + 1);
+                        from = i + 1;
+                        listener.counts(events, time, snapshot());
+                        reported = events;
+                    }
+                }
+                finder.update(batch.x, batch.y, batch.colour, from, batch.size);
+                free.put(batch);
+            }
+            if (parseError[0] instanceof IOException) throw (IOException) parseError[0];
+            if (parseError[0] instanceof RuntimeException) throw (RuntimeException) parseError[0];
+            if (parseError[0] instanceof Error) throw (Error) parseError[0];
+            if (parseError[0] != null) throw new IOException("Parsing " + path + " failed", parseError[0]);
+            if (events > reported || events == 0) listener.counts(events, lastTime, snapshot());
+            return events;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Replay interrupted", e);
+        } finally {
+            parser.interrupt();
+        }
+    }
+
+    private AbstractMap<Integer, Integer> snapshot() {
+        return new HashMap<>(finder.counts());
+    }
+
+    /**
+     * Replays a log onto a blank (transparent black) canvas and prints the counts.
+     * Usage: Timelapse log.csv|log.bin width height everyEvents [everyMillis]
+     */
+    public static void main(String[] args) throws IOException {
+        int width = Integer.parseInt(args[1]), height = Integer.parseInt(args[2]);
+        Image canvas = new Image(width, height, new int[Math.multiplyExact(width, height)]);
+        Timelapse timelapse = new Timelapse(canvas, Long.parseLong(args[3]), args.length > 4 ? Long.parseLong(args[4]) : 0);
+        long start = System.nanoTime();
+        long events = timelapse.replay(args[0], (n, time, counts) -> {
+            int total = counts.values().stream().mapToInt(Integer::intValue).sum();
+            System.out.println(n + " events, time " + time + ": " + total + " amongi " + counts);
+        });
+        System.out.printf("Replayed %d events in %.1f s%n", events, (System.nanoTime() - start) / 1e9);
+    }
+}